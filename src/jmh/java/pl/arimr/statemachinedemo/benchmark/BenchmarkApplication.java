@@ -0,0 +1,32 @@
+package pl.arimr.statemachinedemo.benchmark;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import pl.arimr.statemachinedemo.StatemachineDemoApplication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the application without the web layer and with quiet logging, so benchmarks measure the FSM
+ * rather than log output.
+ */
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        List<String> all = new ArrayList<>(Arrays.asList(
+                "logging.level.root=WARN",
+                "spring.jpa.open-in-view=false"));
+        all.addAll(Arrays.asList(properties));
+        return new SpringApplicationBuilder(StatemachineDemoApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(all.toArray(new String[0]))
+                .run();
+    }
+}
@@ -0,0 +1,102 @@
+package pl.arimr.statemachinedemo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full transitions against embedded H2, one transaction per invocation. Entities alternate between ENTERED
+ * and ACCEPTED (ACCEPT, then DISCARD), so every invocation is an accepted transition.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendEventBenchmarks {
+
+    @Param({"spring", "compiled"})
+    private String engine;
+
+    @Param({"unconditional", "compare-and-set"})
+    private String persistMode;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private ConfigurableApplicationContext context;
+
+    private ApplicationFsmService service;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ApplicationRespository repository;
+
+    private Long id;
+
+    private ApplicationEvent next = ApplicationEvent.ACCEPT;
+
+    private List<Long> batchIds;
+
+    private ApplicationEvent nextBatch = ApplicationEvent.ACCEPT;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(
+                "fsm.engines.applicationFsmFactory=" + engine,
+                "fsm.persist.mode=" + persistMode);
+        service = context.getBean(ApplicationFsmService.class);
+        repository = context.getBean(ApplicationRespository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+
+        id = repository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        batchIds = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batchIds.add(repository.save(new Application("B" + i, "X", BigDecimal.TEN)).getId());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Application sendEvent() throws FsmTransitionException {
+        Application application = service.sendEventById(id, next);
+        next = application.getStatus() == ApplicationStatus.ENTERED ? ApplicationEvent.ACCEPT : ApplicationEvent.DISCARD;
+        return application;
+    }
+
+    @Benchmark
+    public List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> sendEvents() {
+        List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> results = transactionTemplate.execute(
+                status -> service.sendEvents(repository.findAllById(batchIds), nextBatch));
+        nextBatch = nextBatch == ApplicationEvent.ACCEPT ? ApplicationEvent.DISCARD : ApplicationEvent.ACCEPT;
+        return results;
+    }
+}
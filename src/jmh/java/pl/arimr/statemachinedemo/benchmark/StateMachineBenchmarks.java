@@ -0,0 +1,184 @@
+package pl.arimr.statemachinedemo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.guard.Guard;
+import org.springframework.statemachine.listener.StateMachineListener;
+import org.springframework.statemachine.persist.StateMachinePersister;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmStateAccessor;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building blocks of a transition, without the database: machine creation, restore, guard evaluation and the
+ * status write-back. Machine creation and the status write are also measured the way they were done before
+ * ({@code StateMachineBuilder} per machine, reflective field lookup per write); compare the allocation rates
+ * reported by the GC profiler.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StateMachineBenchmarks {
+
+    private ConfigurableApplicationContext context;
+
+    private StateMachineFactory<ApplicationStatus, ApplicationEvent> factory;
+
+    private StateMachinePersister<ApplicationStatus, ApplicationEvent, Application> persister;
+
+    private StateMachine<ApplicationStatus, ApplicationEvent> machine;
+
+    private Application accepted;
+
+    private Guard<ApplicationStatus, ApplicationEvent> approveGuard;
+
+    private StateContext<ApplicationStatus, ApplicationEvent> approveContext;
+
+    private StateMachineListener<ApplicationStatus, ApplicationEvent> loggingListener;
+
+    private Guard<ApplicationStatus, ApplicationEvent> acceptGuard;
+
+    private Action<ApplicationStatus, ApplicationEvent> acceptAction;
+
+    private Action<ApplicationStatus, ApplicationEvent> approveAction;
+
+    private Action<ApplicationStatus, ApplicationEvent> discardAction;
+
+    private FsmStateAccessor<Application, ApplicationStatus> statusAccessor;
+
+    private Application written;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        factory = context.getBean("applicationFsmFactory", StateMachineFactory.class);
+        persister = context.getBean("applicationFsmPersister", StateMachinePersister.class);
+        approveGuard = context.getBean("applicationApproveGuard", Guard.class);
+        acceptGuard = context.getBean("applicationAcceptGuard", Guard.class);
+        acceptAction = context.getBean("applicationAcceptAction", Action.class);
+        approveAction = context.getBean("applicationApproveAction", Action.class);
+        discardAction = context.getBean("applicationDiscardAction", Action.class);
+        loggingListener = context.getBean("applicationFsmloggingListener", StateMachineListener.class);
+        statusAccessor = FsmStateAccessor.of(Application.class);
+        written = new Application("A", "X", BigDecimal.TEN);
+
+        machine = factory.getStateMachine();
+        machine.start();
+        accepted = new Application("A", "X", BigDecimal.TEN);
+        FsmStateAccessor.<Application, ApplicationStatus>of(Application.class).set(accepted, ApplicationStatus.ACCEPTED);
+
+        Map<Object, Object> variables = new HashMap<>();
+        variables.put(FsmExtendedStateCons.ENTITY, accepted);
+        GenericMessage<ApplicationEvent> message = new GenericMessage<>(ApplicationEvent.APPROVE);
+        approveContext = new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(),
+                new DefaultExtendedState(variables), null, null, null, null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public StateMachine<ApplicationStatus, ApplicationEvent> createMachine() {
+        StateMachine<ApplicationStatus, ApplicationEvent> stateMachine = factory.getStateMachine();
+        stateMachine.start();
+        return stateMachine;
+    }
+
+    /**
+     * Equivalent of the former {@code @Scope("prototype")} applicationFsm bean, which built the model per machine.
+     */
+    @Benchmark
+    public StateMachine<ApplicationStatus, ApplicationEvent> buildPrototypeMachine() throws Exception {
+        StateMachineBuilder.Builder<ApplicationStatus, ApplicationEvent> builder = StateMachineBuilder.builder();
+
+        builder.configureConfiguration()
+                .withConfiguration()
+                .autoStartup(true)
+                .listener(loggingListener);
+
+        builder.configureStates()
+                .withStates()
+                .initial(ApplicationStatus.ENTERED)
+                .states(EnumSet.allOf(ApplicationStatus.class))
+                .end(ApplicationStatus.APPROVED);
+
+        builder.configureTransitions()
+                .withExternal().event(ApplicationEvent.ACCEPT)
+                .source(ApplicationStatus.ENTERED).target(ApplicationStatus.ACCEPTED)
+                .guard(acceptGuard)
+                .action(acceptAction)
+                .and()
+                .withExternal().event(ApplicationEvent.APPROVE)
+                .source(ApplicationStatus.ACCEPTED).target(ApplicationStatus.APPROVED)
+                .guard(approveGuard)
+                .action(approveAction)
+                .and()
+                .withExternal().event(ApplicationEvent.DISCARD)
+                .source(ApplicationStatus.ACCEPTED).target(ApplicationStatus.ENTERED)
+                .action(discardAction);
+
+        StateMachine<ApplicationStatus, ApplicationEvent> stateMachine = builder.build();
+        stateMachine.start();
+        return stateMachine;
+    }
+
+    @Benchmark
+    public Application writeStatus() {
+        statusAccessor.set(written, ApplicationStatus.ACCEPTED);
+        return written;
+    }
+
+    /**
+     * What the persist did on every transition before the cached accessor.
+     */
+    @Benchmark
+    public Application writeStatusReflectively() throws Exception {
+        Field field = written.getClass().getDeclaredField("status");
+        field.setAccessible(true);
+        field.set(written, ApplicationStatus.ACCEPTED);
+        return written;
+    }
+
+    @Benchmark
+    public StateMachine<ApplicationStatus, ApplicationEvent> restoreMachine() throws Exception {
+        return persister.restore(machine, accepted);
+    }
+
+    @Benchmark
+    public boolean evaluateApproveGuard() {
+        return approveGuard.evaluate(approveContext);
+    }
+}
@@ -0,0 +1,258 @@
+package pl.arimr.statemachinedemo.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.StatemachineDemoApplication;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+import pl.arimr.statemachinedemo.service.ApplicationIngestService;
+
+import javax.persistence.EntityManager;
+import java.io.File;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed concurrent traffic against {@link ApplicationFsmService} on embedded H2 and the real transaction manager.
+ * <p>
+ * Seeds {@code load.applications} applications, then {@code load.threads} threads send events to random
+ * applications for {@code load.warmup} plus {@code load.duration}; only the latter is measured. Every operation
+ * is one transaction that loads the application and calls {@code trySendEvent}. Events are drawn from
+ * {@code load.mix}, weights per event, e.g. {@code ACCEPT:50,DISCARD:35,APPROVE:15}; refused events count as
+ * rejections and lost compare-and-set races as conflicts.
+ * <p>
+ * Arguments are Spring Boot properties ({@code name=value}, the leading {@code --} is optional), so the configuration
+ * under test is chosen the same way, e.g. {@code fsm.engines.applicationFsmFactory=compiled
+ * fsm.persist.mode=compare-and-set fsm.pool.enabled=false}. The report is printed and written as JSON to {@code load.result}.
+ */
+public final class LoadHarness {
+
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final String[] REPORTED_SETTINGS = {
+            "fsm.engines.applicationFsmFactory", "fsm.persist.mode", "fsm.persist.single-statement", "fsm.pool.enabled",
+            "fsm.pool.size", "fsm.cache.enabled", "fsm.audit.enabled", "fsm.outbox.enabled", "fsm.metrics.enabled"};
+
+    private final ApplicationFsmService service;
+
+    private final ApplicationIngestService ingestService;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int applications;
+
+    private final int threads;
+
+    private final Duration warmup;
+
+    private final Duration duration;
+
+    private final ApplicationEvent[] mix;
+
+    private final Map<String, Object> settings = new LinkedHashMap<>();
+
+    private final long[] ids;
+
+    LoadHarness(ConfigurableApplicationContext context) {
+        Environment environment = context.getEnvironment();
+        this.service = context.getBean(ApplicationFsmService.class);
+        this.ingestService = context.getBean(ApplicationIngestService.class);
+        this.entityManager = context.getBean(EntityManager.class);
+        this.transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        this.applications = environment.getProperty("load.applications", Integer.class, 10000);
+        this.threads = environment.getProperty("load.threads", Integer.class, Runtime.getRuntime().availableProcessors());
+        this.warmup = DurationStyle.detectAndParse(environment.getProperty("load.warmup", "5s"));
+        this.duration = DurationStyle.detectAndParse(environment.getProperty("load.duration", "30s"));
+        String mix = environment.getProperty("load.mix", "ACCEPT:50,DISCARD:35,APPROVE:15");
+        this.mix = parseMix(mix);
+        if (applications < 1 || threads < 1) {
+            throw new IllegalArgumentException("load.applications and load.threads must be positive");
+        }
+        this.ids = new long[applications];
+
+        settings.put("applications", applications);
+        settings.put("threads", threads);
+        settings.put("warmup", warmup.toString());
+        settings.put("duration", duration.toString());
+        settings.put("mix", mix);
+        for (String name : REPORTED_SETTINGS) {
+            settings.put(name, environment.getProperty(name));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                args[i] = "--" + args[i];
+            }
+        }
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(StatemachineDemoApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties("logging.level.root=WARN")
+                .run(args)) {
+            LoadReport report = new LoadHarness(context).run();
+            ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+            String result = context.getEnvironment().getProperty("load.result");
+            if (result != null) {
+                File file = new File(result);
+                if (file.getParentFile() != null) {
+                    file.getParentFile().mkdirs();
+                }
+                mapper.writeValue(file, report);
+            }
+            System.out.println(mapper.writeValueAsString(report));
+        }
+        // a non-daemon scheduler thread of the libraries can outlive the closed context
+        System.exit(0);
+    }
+
+    LoadReport run() throws InterruptedException {
+        seed();
+        long warmupEnd = System.nanoTime() + warmup.toNanos();
+        long end = warmupEnd + duration.toNanos();
+        List<Worker> workers = new ArrayList<>(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(warmupEnd, end, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        Histogram all = newHistogram();
+        Map<String, Histogram> byEvent = new LinkedHashMap<>();
+        Map<String, Long> outcomes = new LinkedHashMap<>();
+        for (TransitionOutcome outcome : TransitionOutcome.values()) {
+            outcomes.put(outcome.name(), 0L);
+        }
+        for (Worker worker : workers) {
+            all.add(worker.all);
+            worker.byEvent.forEach((event, histogram) -> byEvent.computeIfAbsent(event.name(), name -> newHistogram()).add(histogram));
+            worker.outcomes.forEach((outcome, count) -> outcomes.merge(outcome.name(), count, Long::sum));
+        }
+        return new LoadReport(settings, duration.toNanos(), outcomes, all, byEvent);
+    }
+
+    /**
+     * Inserts the applications, all ENTERED.
+     */
+    private void seed() {
+        Application[] seeded = new Application[applications];
+        ingestService.ingest(() -> new Iterator<Application>() {
+            private int created;
+
+            @Override
+            public boolean hasNext() {
+                return created < applications;
+            }
+
+            @Override
+            public Application next() {
+                Application application = new Application("LOAD-" + created, "LOAD", BigDecimal.TEN);
+                seeded[created++] = application;
+                return application;
+            }
+        });
+        for (int i = 0; i < applications; i++) {
+            ids[i] = seeded[i].getId();
+        }
+    }
+
+    private ApplicationEvent[] parseMix(String mix) {
+        List<ApplicationEvent> events = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] eventAndWeight = part.trim().split(":");
+            ApplicationEvent event = ApplicationEvent.valueOf(eventAndWeight[0].trim());
+            int weight = eventAndWeight.length > 1 ? Integer.parseInt(eventAndWeight[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                events.add(event);
+            }
+        }
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("load.mix has no events: " + mix);
+        }
+        return events.toArray(new ApplicationEvent[0]);
+    }
+
+    private static Histogram newHistogram() {
+        return new Histogram(HIGHEST_LATENCY_MICROS, 3);
+    }
+
+    private class Worker implements Runnable {
+
+        private final long measureFrom;
+
+        private final long end;
+
+        private final CountDownLatch done;
+
+        private final Histogram all = newHistogram();
+
+        private final Map<ApplicationEvent, Histogram> byEvent = new EnumMap<>(ApplicationEvent.class);
+
+        private final Map<TransitionOutcome, Long> outcomes = new EnumMap<>(TransitionOutcome.class);
+
+        Worker(long measureFrom, long end, CountDownLatch done) {
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (long start = System.nanoTime(); start < end; start = System.nanoTime()) {
+                    long id = ids[random.nextInt(applications)];
+                    ApplicationEvent event = mix[random.nextInt(mix.length)];
+                    TransitionOutcome outcome = send(id, event);
+                    long now = System.nanoTime();
+                    if (start >= measureFrom) {
+                        long micros = Math.min(HIGHEST_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(now - start));
+                        all.recordValue(micros);
+                        byEvent.computeIfAbsent(event, e -> newHistogram()).recordValue(micros);
+                        outcomes.merge(outcome, 1L, Long::sum);
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private TransitionOutcome send(long id, ApplicationEvent event) {
+            try {
+                TransitionResult<ApplicationStatus, ApplicationEvent, Application> result = transactionTemplate.execute(
+                        status -> service.trySendEvent(entityManager.find(Application.class, id), event));
+                return result.getOutcome();
+            } catch (RuntimeException e) {
+                return TransitionOutcome.FAILED;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package pl.arimr.statemachinedemo.load;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Getter;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of one harness run, written as JSON. Latencies are in microseconds, rates are fractions of all
+ * measured operations.
+ */
+@Getter
+@JsonPropertyOrder({"settings", "operations", "throughput", "rejectionRate", "conflictRate", "failureRate", "outcomes", "latency", "events"})
+public class LoadReport {
+
+    private final Map<String, Object> settings;
+    private final long operations;
+    /**
+     * Operations per second.
+     */
+    private final double throughput;
+    private final double rejectionRate;
+    private final double conflictRate;
+    private final double failureRate;
+    private final Map<String, Long> outcomes;
+    private final Latency latency;
+    private final Map<String, Latency> events = new LinkedHashMap<>();
+
+    LoadReport(Map<String, Object> settings, long elapsedNanos, Map<String, Long> outcomes, Histogram all, Map<String, Histogram> byEvent) {
+        this.settings = settings;
+        this.operations = all.getTotalCount();
+        this.throughput = operations * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        this.outcomes = outcomes;
+        this.rejectionRate = rate(outcomes.get("REJECTED"));
+        this.conflictRate = rate(outcomes.get("CONFLICT"));
+        this.failureRate = rate(outcomes.get("FAILED"));
+        this.latency = new Latency(all);
+        byEvent.forEach((event, histogram) -> events.put(event, new Latency(histogram)));
+    }
+
+    private double rate(Long count) {
+        return operations == 0 || count == null ? 0 : count / (double) operations;
+    }
+
+    @Getter
+    @JsonPropertyOrder({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+    public static class Latency {
+
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        Latency(Histogram histogram) {
+            this.count = histogram.getTotalCount();
+            this.mean = histogram.getMean();
+            this.p50 = histogram.getValueAtPercentile(50);
+            this.p90 = histogram.getValueAtPercentile(90);
+            this.p99 = histogram.getValueAtPercentile(99);
+            this.p999 = histogram.getValueAtPercentile(99.9);
+            this.max = histogram.getMaxValue();
+        }
+    }
+}
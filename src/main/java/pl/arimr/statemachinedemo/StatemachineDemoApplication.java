@@ -2,8 +2,10 @@ package pl.arimr.statemachinedemo;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class StatemachineDemoApplication {
 
     public static void main(String[] args) {
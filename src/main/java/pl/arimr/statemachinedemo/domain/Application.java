@@ -5,6 +5,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmState;
 
 import javax.persistence.*;
 import java.math.BigDecimal;
@@ -14,19 +15,32 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @Getter
 @Setter
-@Table(name = "APPLICATION")
+// keyset scans by status and unit: WHERE STATUS=? AND ORGANIZATION_UNIT=? AND ID>? ORDER BY ID
+@Table(name = "APPLICATION", indexes = {
+        @Index(name = "IDX_APPLICATION_STATUS_UNIT_ID", columnList = "STATUS,ORGANIZATION_UNIT,ID"),
+        // timing wheel rebuild: WHERE DEADLINE IS NOT NULL
+        @Index(name = "IDX_APPLICATION_DEADLINE", columnList = "DEADLINE")})
 public class Application extends BaseEntity {
 
     private String name;
     private LocalDateTime createdDate;
+    @Column(name = "ORGANIZATION_UNIT")
     private String organizationUnit;
     private BigDecimal amount;
 
     @Column(nullable = false, updatable = false, name = "STATUS")
     @Setter(AccessLevel.PRIVATE)
     @Enumerated(EnumType.STRING)
+    @FsmState
     private ApplicationStatus status = ApplicationStatus.ENTERED;
 
+    /**
+     * When the timeout transition of the current status fires; null if the status has none. Written with the status.
+     */
+    @Column(updatable = false, name = "DEADLINE")
+    @Setter(AccessLevel.PRIVATE)
+    private LocalDateTime deadline;
+
     public Application(String name, String organizationUnit, BigDecimal amount) {
         this.name = name;
         this.organizationUnit = organizationUnit;
@@ -0,0 +1,38 @@
+package pl.arimr.statemachinedemo.domain;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Inserted application or status change, for the status snapshot to catch up on. Rows are written by
+ * {@link pl.arimr.statemachinedemo.service.ApplicationChangeLog} and read by
+ * {@link pl.arimr.statemachinedemo.service.ApplicationStatusSnapshot} with plain JDBC; the mapping is for reading
+ * them back.
+ */
+@Entity
+@Immutable
+@NoArgsConstructor
+@Getter
+@Table(name = "APPLICATION_CHANGE", indexes = @Index(name = "IDX_APPLICATION_CHANGE_CREATED", columnList = "CREATED_DATE"))
+public class ApplicationChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ID")
+    private Long id;
+
+    @Column(name = "APPLICATION_ID", nullable = false)
+    private Long applicationId;
+    @Column(name = "CREATED_DATE", nullable = false)
+    private LocalDateTime createdDate;
+}
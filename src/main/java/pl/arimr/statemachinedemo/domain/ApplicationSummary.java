@@ -0,0 +1,24 @@
+package pl.arimr.statemachinedemo.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+
+import java.math.BigDecimal;
+
+/**
+ * Columns of {@link Application} a batch job usually needs to decide what to do with it. Read with a JPQL
+ * constructor expression, so no entity is built or registered in the persistence context.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ApplicationSummary {
+
+    private final Long id;
+
+    private final ApplicationStatus status;
+
+    private final BigDecimal amount;
+}
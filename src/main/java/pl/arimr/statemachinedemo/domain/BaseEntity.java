@@ -2,24 +2,45 @@ package pl.arimr.statemachinedemo.domain;
 
 import lombok.Getter;
 
+import javax.persistence.Column;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.SequenceGenerator;
 import java.io.Serializable;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 @MappedSuperclass
 @Getter
 public abstract class BaseEntity implements Serializable {
 
-    private final String uuid = UUID.randomUUID().toString();
+    private final String uuid = randomUuid();
 
+    /**
+     * Pooled sequence: one round trip per {@code allocationSize} ids, and unlike IDENTITY it leaves Hibernate
+     * free to batch inserts.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "entitySequence")
+    @SequenceGenerator(name = "entitySequence", sequenceName = "ENTITY_SEQ", allocationSize = 50)
+    @Column(name = "ID")
     private Long id;
 
+    /**
+     * Random (version 4) UUID from {@link ThreadLocalRandom}. The uuid only identifies unsaved instances in
+     * {@link #equals(Object)}, so it needs no {@link java.security.SecureRandom}, whose shared lock
+     * {@link UUID#randomUUID()} contends on.
+     */
+    private static String randomUuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(uuid);
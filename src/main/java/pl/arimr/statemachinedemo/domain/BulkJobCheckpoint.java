@@ -0,0 +1,58 @@
+package pl.arimr.statemachinedemo.domain;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Highest id a bulk job has committed every item up to; a restarted job continues after it. The filter and event
+ * of the job are kept with it, so a job of the same name with another filter does not skip their ids.
+ */
+@Entity
+@NoArgsConstructor
+@Getter
+@Setter
+@Table(name = "BULK_JOB_CHECKPOINT")
+public class BulkJobCheckpoint {
+
+    @Id
+    @Column(name = "NAME")
+    private String name;
+
+    @Column(name = "STATUS")
+    @Enumerated(EnumType.STRING)
+    private ApplicationStatus status;
+
+    @Column(name = "ORGANIZATION_UNIT")
+    private String organizationUnit;
+
+    @Column(name = "EVENT")
+    @Enumerated(EnumType.STRING)
+    private ApplicationEvent event;
+
+    @Column(name = "LAST_ID")
+    private long lastId;
+
+    @Column(name = "UPDATED_DATE")
+    private LocalDateTime updatedDate;
+
+    public BulkJobCheckpoint(String name, ApplicationStatus status, String organizationUnit, ApplicationEvent event,
+                             long lastId) {
+        this.name = name;
+        this.status = status;
+        this.organizationUnit = organizationUnit;
+        this.event = event;
+        this.lastId = lastId;
+        this.updatedDate = LocalDateTime.now();
+    }
+}
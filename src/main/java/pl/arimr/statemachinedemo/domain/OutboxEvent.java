@@ -0,0 +1,53 @@
+package pl.arimr.statemachinedemo.domain;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Accepted transition waiting to be published downstream. Rows are written by
+ * {@link pl.arimr.statemachinedemo.fsm.FsmOutbox} and claimed by {@link pl.arimr.statemachinedemo.fsm.FsmOutboxRelay}
+ * with plain JDBC; the mapping is for reading them back.
+ */
+@Entity
+@Immutable
+@NoArgsConstructor
+@Getter
+@Table(name = "OUTBOX_EVENT", indexes = @Index(name = "IDX_OUTBOX_EVENT_PENDING", columnList = "PUBLISHED_DATE,ID"))
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ID")
+    private Long id;
+
+    @Column(name = "MACHINE", nullable = false)
+    private String machine;
+    @Column(name = "ENTITY_ID")
+    private Long entityId;
+    @Column(name = "EVENT", nullable = false)
+    private String event;
+    @Column(name = "FROM_STATE")
+    private String fromState;
+    @Column(name = "TO_STATE")
+    private String toState;
+    @Column(name = "CREATED_DATE", nullable = false)
+    private LocalDateTime createdDate;
+    @Column(name = "CLAIMED_BY")
+    private String claimedBy;
+    @Column(name = "CLAIMED_UNTIL")
+    private LocalDateTime claimedUntil;
+    @Column(name = "ATTEMPTS", nullable = false)
+    private int attempts;
+    @Column(name = "PUBLISHED_DATE")
+    private LocalDateTime publishedDate;
+}
@@ -0,0 +1,60 @@
+package pl.arimr.statemachinedemo.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Result of an event sent with an idempotency key, kept so that redeliveries of the event are answered without
+ * running the machine again. Rows are written and purged by {@link pl.arimr.statemachinedemo.fsm.FsmIdempotencyStore}
+ * with plain JDBC; the mapping is for reading them back. Keys are scoped to the machine type.
+ */
+@Entity
+@Immutable
+@NoArgsConstructor
+@Getter
+@IdClass(ProcessedEvent.Key.class)
+@Table(name = "PROCESSED_EVENT", indexes = @Index(name = "IDX_PROCESSED_EVENT_CREATED", columnList = "CREATED_DATE"))
+public class ProcessedEvent {
+
+    @Id
+    @Column(name = "EVENT_KEY", length = 100)
+    private String eventKey;
+    @Id
+    @Column(name = "MACHINE")
+    private String machine;
+
+    @Column(name = "ENTITY_ID")
+    private Long entityId;
+    @Column(name = "EVENT", nullable = false)
+    private String event;
+    @Column(name = "OUTCOME", nullable = false)
+    private String outcome;
+    @Column(name = "FROM_STATE")
+    private String fromState;
+    @Column(name = "TO_STATE")
+    private String toState;
+    @Column(name = "MESSAGE")
+    private String message;
+    @Column(name = "CREATED_DATE", nullable = false)
+    private LocalDateTime createdDate;
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private String eventKey;
+        private String machine;
+    }
+}
@@ -0,0 +1,45 @@
+package pl.arimr.statemachinedemo.domain;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Append-only audit of transitions. Rows are inserted by {@link pl.arimr.statemachinedemo.fsm.FsmAuditLog}
+ * with plain JDBC; the mapping is for reading them back.
+ */
+@Entity
+@Immutable
+@NoArgsConstructor
+@Getter
+@Table(name = "TRANSITION_HISTORY", indexes = @Index(name = "IDX_TRANSITION_HISTORY_ENTITY", columnList = "MACHINE,ENTITY_ID"))
+public class TransitionHistory {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "MACHINE")
+    private String machine;
+    @Column(name = "ENTITY_ID")
+    private Long entityId;
+    @Column(name = "FROM_STATE")
+    private String fromState;
+    @Column(name = "TO_STATE")
+    private String toState;
+    @Column(name = "EVENT")
+    private String event;
+    @Column(name = "OUTCOME")
+    private String outcome;
+    @Column(name = "CREATED_DATE")
+    private LocalDateTime createdDate;
+}
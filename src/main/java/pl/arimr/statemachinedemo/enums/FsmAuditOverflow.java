@@ -0,0 +1,19 @@
+package pl.arimr.statemachinedemo.enums;
+
+/**
+ * What happens to an audit record when the in-memory buffer is full.
+ */
+public enum FsmAuditOverflow {
+    /**
+     * Caller waits for room in the buffer, up to {@code fsm.audit.offer-timeout}; then the record is dropped.
+     */
+    BLOCK,
+    /**
+     * Record is dropped and counted.
+     */
+    DROP,
+    /**
+     * Record is written by the caller, bypassing the buffer.
+     */
+    SYNC
+}
@@ -0,0 +1,12 @@
+package pl.arimr.statemachinedemo.enums;
+
+public enum FsmBackpressure {
+    /**
+     * Producer waits for room in the queue, up to the configured timeout.
+     */
+    BLOCK,
+    /**
+     * Event is rejected straight away.
+     */
+    REJECT
+}
@@ -0,0 +1,12 @@
+package pl.arimr.statemachinedemo.enums;
+
+public enum FsmEngineType {
+    /**
+     * Spring Statemachine runtime, machines taken from the machine type's factory.
+     */
+    SPRING,
+    /**
+     * Transition table compiled from the machine's transition definitions, for flat machines only.
+     */
+    COMPILED
+}
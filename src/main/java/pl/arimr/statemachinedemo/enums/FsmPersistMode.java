@@ -0,0 +1,12 @@
+package pl.arimr.statemachinedemo.enums;
+
+public enum FsmPersistMode {
+    /**
+     * Status is overwritten, the last writer wins.
+     */
+    UNCONDITIONAL,
+    /**
+     * Status is only written when the row still holds the state the transition started from.
+     */
+    COMPARE_AND_SET
+}
@@ -0,0 +1,21 @@
+package pl.arimr.statemachinedemo.enums;
+
+/**
+ * Timed parts of a transition, see {@link pl.arimr.statemachinedemo.fsm.FsmMetrics}.
+ */
+public enum FsmStage {
+    /**
+     * Taking a machine and restoring it for the entity.
+     */
+    ACQUIRE,
+    GUARD,
+    ACTION,
+    /**
+     * Writing the new state.
+     */
+    PERSIST,
+    /**
+     * Merging the entity after the transition.
+     */
+    MERGE
+}
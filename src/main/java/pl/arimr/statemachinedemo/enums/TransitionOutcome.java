@@ -0,0 +1,20 @@
+package pl.arimr.statemachinedemo.enums;
+
+public enum TransitionOutcome {
+    /**
+     * Transition executed and persisted.
+     */
+    ACCEPTED,
+    /**
+     * Event refused by the machine, e.g. by a guard.
+     */
+    REJECTED,
+    /**
+     * Entity state was changed concurrently, nothing was persisted.
+     */
+    CONFLICT,
+    /**
+     * Unexpected error while processing the event.
+     */
+    FAILED
+}
@@ -0,0 +1,16 @@
+package pl.arimr.statemachinedemo.exceptions;
+
+
+/**
+ * The entity's state was changed by someone else between reading it and persisting the transition.
+ */
+public class FsmConflictException extends FsmTransitionException {
+
+    public FsmConflictException(String message) {
+        super(message);
+    }
+
+    public FsmConflictException(String message, boolean writableStackTrace) {
+        super(message, writableStackTrace);
+    }
+}
@@ -3,11 +3,21 @@ package pl.arimr.statemachinedemo.exceptions;
 
 public class FsmTransitionException extends Exception {
 
+    public static final String DEFAULT_MESSAGE = "FSM TRANSITION EXCEPTION";
+
     public FsmTransitionException() {
-        this("FSM TRANSITION EXCEPTION");
+        this(DEFAULT_MESSAGE);
     }
 
     public FsmTransitionException(String message) {
         super(message);
     }
+
+    /**
+     * For callers that expect many refusals and only care about the message: without a stack trace
+     * the exception costs little more than the message itself.
+     */
+    public FsmTransitionException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
@@ -1,15 +1,22 @@
 package pl.arimr.statemachinedemo.fsm;
 
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.messaging.Message;
-import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.action.Action;
-import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.EnableStateMachineFactory;
+import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
+import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
+import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.config.configurers.ExternalTransitionConfigurer;
 import org.springframework.statemachine.guard.Guard;
 import org.springframework.statemachine.listener.StateMachineListener;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
@@ -22,17 +29,41 @@ import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
 import pl.arimr.statemachinedemo.domain.Application;
 import pl.arimr.statemachinedemo.enums.ApplicationEvent;
 import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.FsmPersistMode;
+import pl.arimr.statemachinedemo.exceptions.FsmConflictException;
+import pl.arimr.statemachinedemo.service.ApplicationChangeLog;
+import pl.arimr.statemachinedemo.service.ApplicationStatusCounters;
 
 import javax.persistence.EntityManager;
-import java.lang.reflect.Field;
+import javax.persistence.FlushModeType;
+import javax.persistence.TemporalType;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Application workflow. The model is built once at startup and exposed as the {@code applicationFsmFactory}
+ * {@link org.springframework.statemachine.config.StateMachineFactory}; guards and actions are shared singletons,
+ * so obtaining a machine only allocates its runtime state.
+ */
 @Slf4j
 @Configuration
-public class ApplicationFsmConfig {
+@EnableStateMachineFactory(name = "applicationFsmFactory", contextEvents = false)
+public class ApplicationFsmConfig extends EnumStateMachineConfigurerAdapter<ApplicationStatus, ApplicationEvent> {
+
+    @Autowired
+    private FsmMetrics fsmMetrics;
 
     @Bean
     public StateMachinePersister<ApplicationStatus, ApplicationEvent, Application> applicationFsmPersister(
@@ -41,24 +72,125 @@ public class ApplicationFsmConfig {
     }
 
     @Bean
-    public StateMachinePersist<ApplicationStatus, ApplicationEvent, Application> applicationFsmPersist(final EntityManager em) {
-        return new StateMachinePersist<ApplicationStatus, ApplicationEvent, Application>() {
+    public BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application> applicationFsmPersist(final EntityManager em,
+                                                                                                         final FsmProperties fsmProperties,
+                                                                                                         final ApplicationStatusCounters statusCounters,
+                                                                                                         final ApplicationChangeLog changeLog,
+                                                                                                         final FsmContextCache<ApplicationStatus, ApplicationEvent> applicationFsmContextCache,
+                                                                                                         final FsmTimeouts<ApplicationStatus, ApplicationEvent> applicationFsmTimeouts) {
+        final FsmContextCache<ApplicationStatus, ApplicationEvent> contextCache = fsmProperties.getCache().isEnabled() ? applicationFsmContextCache : null;
+        final boolean compareAndSet = fsmProperties.getPersist().getMode() == FsmPersistMode.COMPARE_AND_SET;
+        final EntityRowUpdater rowUpdater = fsmProperties.getPersist().isSingleStatement() ? new EntityRowUpdater(em) : null;
+        return new BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application>() {
+
+            // status has no public setter
+            private final FsmStateAccessor<Application, ApplicationStatus> statusAccessor = FsmStateAccessor.of(Application.class);
+
+            private final EntityFieldAccessor<Application, LocalDateTime> deadlineAccessor = EntityFieldAccessor.of(Application.class, "deadline");
 
             @Override
-            public void write(final StateMachineContext<ApplicationStatus, ApplicationEvent> context, Application entity) throws NoSuchFieldException, IllegalAccessException {
+            public void write(final StateMachineContext<ApplicationStatus, ApplicationEvent> context, Application entity) throws Exception {
                 ApplicationStatus status = context.getState();
-                em.createNativeQuery("UPDATE APPLICATION SET STATUS=:status WHERE ID=:id")
-                        .setParameter("id", entity.getId())
+                LocalDateTime deadline = applicationFsmTimeouts.deadline(status);
+                if (rowUpdater != null && rowUpdater.supports(entity)) {
+                    if (!rowUpdater.update(entity, statusAccessor.getName(), status, compareAndSet ? entity.getStatus() : null,
+                            Collections.singletonMap(deadlineAccessor.getName(), deadline))) {
+                        throw new FsmConflictException("Application #" + entity.getId() + " is no longer " + entity.getStatus());
+                    }
+                } else if (compareAndSet) {
+                    // entity still holds the state the transition started from
+                    int updated = em.createNativeQuery("UPDATE APPLICATION SET STATUS=:status, DEADLINE=:deadline WHERE ID=:id AND STATUS=:expected")
+                            .setParameter("id", entity.getId())
+                            .setParameter("status", status.name())
+                            .setParameter("deadline", timestamp(deadline), TemporalType.TIMESTAMP)
+                            .setParameter("expected", entity.getStatus().name())
+                            // changes made by actions must not reach the row before the transition wins
+                            .setFlushMode(FlushModeType.COMMIT)
+                            .executeUpdate();
+                    if (updated == 0) {
+                        throw new FsmConflictException("Application #" + entity.getId() + " is no longer " + entity.getStatus());
+                    }
+                } else {
+                    em.createNativeQuery("UPDATE APPLICATION SET STATUS=:status, DEADLINE=:deadline WHERE ID=:id")
+                            .setParameter("id", entity.getId())
+                            .setParameter("status", status.name())
+                            .setParameter("deadline", timestamp(deadline), TemporalType.TIMESTAMP)
+                            .executeUpdate();
+                }
+                setStatus(entity, status, deadline);
+            }
+
+            @Override
+            public Collection<Application> writeAll(final ApplicationStatus status, final Collection<Application> entities) throws Exception {
+                LocalDateTime deadline = applicationFsmTimeouts.deadline(status);
+                if (compareAndSet) {
+                    return compareAndSetAll(status, deadline, entities);
+                }
+                List<Long> ids = new ArrayList<>(entities.size());
+                for (Application entity : entities) {
+                    ids.add(entity.getId());
+                }
+                em.createNativeQuery("UPDATE APPLICATION SET STATUS=:status, DEADLINE=:deadline WHERE ID IN (:ids)")
+                        .setParameter("ids", ids)
                         .setParameter("status", status.name())
+                        .setParameter("deadline", timestamp(deadline), TemporalType.TIMESTAMP)
                         .executeUpdate();
-                // set status via reflection to avoid having setter
-                Field field = entity.getClass().getDeclaredField("status");
-                field.setAccessible(true);
-                field.set(entity, status);
+                for (Application entity : entities) {
+                    setStatus(entity, status, deadline);
+                }
+                return Collections.emptyList();
+            }
+
+            /**
+             * Expected state differs per row, so this is a JDBC batch rather than one statement; the per-row update
+             * counts tell which entities lost the race. Plain JDBC does not auto-flush action changes.
+             */
+            private Collection<Application> compareAndSetAll(final ApplicationStatus status, final LocalDateTime deadline,
+                                                             final Collection<Application> entities) throws Exception {
+                int[] updated = em.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement("UPDATE APPLICATION SET STATUS=?, DEADLINE=? WHERE ID=? AND STATUS=?")) {
+                        for (Application entity : entities) {
+                            statement.setString(1, status.name());
+                            statement.setTimestamp(2, timestamp(deadline));
+                            statement.setLong(3, entity.getId());
+                            statement.setString(4, entity.getStatus().name());
+                            statement.addBatch();
+                        }
+                        return statement.executeBatch();
+                    }
+                });
+                List<Application> conflicts = new ArrayList<>();
+                int i = 0;
+                for (Application entity : entities) {
+                    if (updated[i++] == 0) {
+                        conflicts.add(entity);
+                    } else {
+                        setStatus(entity, status, deadline);
+                    }
+                }
+                return conflicts;
+            }
+
+            private void setStatus(Application entity, ApplicationStatus status, LocalDateTime deadline) {
+                statusCounters.moved(entity.getOrganizationUnit(), entity.getStatus(), status);
+                changeLog.changed(entity.getId());
+                statusAccessor.set(entity, status);
+                deadlineAccessor.set(entity, deadline);
+                applicationFsmTimeouts.scheduleAfterCommit(entity.getId(), deadline);
+            }
+
+            private Timestamp timestamp(LocalDateTime deadline) {
+                return deadline != null ? Timestamp.valueOf(deadline) : null;
             }
 
+            /**
+             * The engine puts the entity into the machine after restoring, so a cached context can be shared.
+             */
             @Override
             public StateMachineContext<ApplicationStatus, ApplicationEvent> read(final Application entity) {
+                if (contextCache != null) {
+                    return contextCache.context(entity.getStatus());
+                }
                 Map<Object, Object> extendedState = new HashMap<>();
                 extendedState.put(FsmExtendedStateCons.ENTITY, entity);
                 return new DefaultStateMachineContext<>(entity.getStatus(), null, new HashMap<>(), new DefaultExtendedState(extendedState));
@@ -66,12 +198,33 @@ public class ApplicationFsmConfig {
         };
     }
 
+    @Bean
+    public FsmContextCache<ApplicationStatus, ApplicationEvent> applicationFsmContextCache() {
+        return new FsmContextCache<>("applicationFsmFactory", ApplicationStatus.class);
+    }
+
+    @Bean
+    public FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> applicationFsmIdempotencyStore(final JdbcTemplate jdbcTemplate,
+                                                                                                 final FsmProperties fsmProperties) {
+        return new FsmIdempotencyStore<>("applicationFsmFactory", ApplicationStatus::valueOf, ApplicationEvent::valueOf,
+                jdbcTemplate, fsmProperties.getIdempotency());
+    }
+
+    /**
+     * Deadlines of the application workflow. The timeouts are part of the machine configuration, see
+     * {@link #applicationFsmTimeoutDefinitions()}.
+     */
+    @Bean
+    public FsmTimeouts<ApplicationStatus, ApplicationEvent> applicationFsmTimeouts(final FsmProperties fsmProperties, final Clock fsmClock) {
+        return new FsmTimeouts<>("applicationFsmFactory", applicationFsmTimeoutDefinitions(), applicationFsmTransitions(), fsmProperties, fsmClock);
+    }
+
     @Bean
     public StateMachineListener<ApplicationStatus, ApplicationEvent> applicationFsmloggingListener() {
         return new StateMachineListenerAdapter<ApplicationStatus, ApplicationEvent>() {
             @Override
             public void stateChanged(State<ApplicationStatus, ApplicationEvent> from, State<ApplicationStatus, ApplicationEvent> to) {
-                log.info("FSM State changed to {}", to.getId());
+                log.debug("FSM State changed to {}", to.getId());
             }
 
             @Override
@@ -81,47 +234,72 @@ public class ApplicationFsmConfig {
 
             @Override
             public void extendedStateChanged(Object key, Object value) {
-                log.info("FSM state changed {}={}", key, value);
+                log.debug("FSM state changed {}={}", key, value);
             }
         };
     }
 
-    @Bean("applicationFsm")
-    @Scope("prototype")
-    public StateMachine<ApplicationStatus, ApplicationEvent> applicationFsm() throws Exception {
-        StateMachineBuilder.Builder<ApplicationStatus, ApplicationEvent> builder = StateMachineBuilder.builder();
-
-        builder.configureConfiguration()
-                .withConfiguration()
+    @Override
+    public void configure(final StateMachineConfigurationConfigurer<ApplicationStatus, ApplicationEvent> config) throws Exception {
+        config.withConfiguration()
+                // machines need no beans from the context; an empty factory keeps the application context
+                // out of every machine built by the factory (no annotation handler lookups)
+                .beanFactory(new StaticListableBeanFactory())
                 .autoStartup(true)
                 .listener(applicationFsmloggingListener());
+    }
 
-        builder.configureStates()
-                .withStates()
+    @Override
+    public void configure(final StateMachineStateConfigurer<ApplicationStatus, ApplicationEvent> states) throws Exception {
+        states.withStates()
                 .initial(ApplicationStatus.ENTERED)
                 .states(EnumSet.allOf(ApplicationStatus.class))
                 .end(ApplicationStatus.APPROVED);
+    }
 
-        builder.configureTransitions()
-                .withExternal().event(ApplicationEvent.ACCEPT)
-                .source(ApplicationStatus.ENTERED).target(ApplicationStatus.ACCEPTED)
-                .guard(createAcceptGuard())
-                .action(crateAcceptAction())
-                .and()
-                .withExternal().event(ApplicationEvent.APPROVE)
-                .source(ApplicationStatus.ACCEPTED).target(ApplicationStatus.APPROVED)
-                .guard(createApproveGuard())
-                .action(createApproveAction())
-                .and()
-                .withExternal().event(ApplicationEvent.DISCARD)
-                .source(ApplicationStatus.ACCEPTED).target(ApplicationStatus.ENTERED)
-                .action(createDiscardAction());
+    @Override
+    public void configure(final StateMachineTransitionConfigurer<ApplicationStatus, ApplicationEvent> transitions) throws Exception {
+        for (TransitionDefinition<ApplicationStatus, ApplicationEvent> definition : applicationFsmTransitions()) {
+            ExternalTransitionConfigurer<ApplicationStatus, ApplicationEvent> transition = transitions.withExternal()
+                    .event(definition.getEvent())
+                    .source(definition.getSource()).target(definition.getTarget());
+            if (definition.getGuard() != null) {
+                transition.guard(definition.getGuard());
+            }
+            if (definition.getAction() != null) {
+                transition.action(definition.getAction());
+            }
+        }
+    }
 
+    /**
+     * Transitions of the application workflow, shared by the Spring factory model and the compiled engine.
+     * Guards and actions are timed when metrics are enabled.
+     */
+    @Bean
+    public List<TransitionDefinition<ApplicationStatus, ApplicationEvent>> applicationFsmTransitions() {
+        return fsmMetrics.instrument("applicationFsmFactory", Collections.unmodifiableList(Arrays.asList(
+                new TransitionDefinition<>(ApplicationStatus.ENTERED, ApplicationStatus.ACCEPTED, ApplicationEvent.ACCEPT,
+                        applicationAcceptGuard(), applicationAcceptAction()),
+                new TransitionDefinition<>(ApplicationStatus.ACCEPTED, ApplicationStatus.APPROVED, ApplicationEvent.APPROVE,
+                        applicationApproveGuard(), applicationApproveAction()),
+                new TransitionDefinition<>(ApplicationStatus.ACCEPTED, ApplicationStatus.ENTERED, ApplicationEvent.DISCARD,
+                        null, applicationDiscardAction()))));
+    }
 
-        return builder.build();
+    /**
+     * Events fired for applications that stay in a state too long; each must be a transition from that state.
+     * Applications left ACCEPTED are discarded after 30 days unless {@code fsm.timeouts.applicationFsmFactory.ACCEPTED}
+     * says otherwise.
+     */
+    @Bean
+    public List<TimeoutDefinition<ApplicationStatus, ApplicationEvent>> applicationFsmTimeoutDefinitions() {
+        return Collections.singletonList(
+                new TimeoutDefinition<>(ApplicationStatus.ACCEPTED, ApplicationEvent.DISCARD, Duration.ofDays(30)));
     }
 
-    private Guard<ApplicationStatus, ApplicationEvent> createAcceptGuard() {
+    @Bean
+    public Guard<ApplicationStatus, ApplicationEvent> applicationAcceptGuard() {
         return stateContext -> {
             Application entity = stateContext.getExtendedState().get(FsmExtendedStateCons.ENTITY, Application.class);
             if (entity.getId() == null) {
@@ -133,21 +311,24 @@ public class ApplicationFsmConfig {
     }
 
 
-    private Action<ApplicationStatus, ApplicationEvent> crateAcceptAction() {
+    @Bean
+    public Action<ApplicationStatus, ApplicationEvent> applicationAcceptAction() {
         return stateContext -> {
             Application entity = stateContext.getExtendedState().get(FsmExtendedStateCons.ENTITY, Application.class);
-            log.info("ACCEPTED APPLICATION #" + entity.getId());
+            log.debug("ACCEPTED APPLICATION #{}", entity.getId());
         };
     }
 
-    private Action<ApplicationStatus, ApplicationEvent> createDiscardAction() {
+    @Bean
+    public Action<ApplicationStatus, ApplicationEvent> applicationDiscardAction() {
         return stateContext -> {
             Application entity = stateContext.getExtendedState().get(FsmExtendedStateCons.ENTITY, Application.class);
-            log.info("DISCARDED APPLICATION #" + entity.getId());
+            log.debug("DISCARDED APPLICATION #{}", entity.getId());
         };
     }
 
-    private Guard<ApplicationStatus, ApplicationEvent> createApproveGuard() {
+    @Bean
+    public Guard<ApplicationStatus, ApplicationEvent> applicationApproveGuard() {
         return stateContext -> {
             Application entity = stateContext.getExtendedState().get(FsmExtendedStateCons.ENTITY, Application.class);
             if (entity.getAmount() == null) {
@@ -163,10 +344,11 @@ public class ApplicationFsmConfig {
         };
     }
 
-    private Action<ApplicationStatus, ApplicationEvent> createApproveAction() {
+    @Bean
+    public Action<ApplicationStatus, ApplicationEvent> applicationApproveAction() {
         return stateContext -> {
             Application entity = stateContext.getExtendedState().get(FsmExtendedStateCons.ENTITY, Application.class);
-            log.info("APPROVED APPLICATION #" + entity.getId());
+            log.debug("APPROVED APPLICATION #{}", entity.getId());
             entity.setName("APPROVED: " + entity.getName());
         };
     }
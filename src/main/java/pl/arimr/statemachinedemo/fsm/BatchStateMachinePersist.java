@@ -0,0 +1,17 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.springframework.statemachine.StateMachinePersist;
+
+import java.util.Collection;
+
+/**
+ * {@link StateMachinePersist} that can also move many entities to the same state with a single statement.
+ */
+public interface BatchStateMachinePersist<S, E, T> extends StateMachinePersist<S, E, T> {
+
+    /**
+     * @return entities that were not moved because their row no longer held the expected state; empty unless
+     * compare-and-set persistence is used
+     */
+    Collection<T> writeAll(S state, Collection<T> entities) throws Exception;
+}
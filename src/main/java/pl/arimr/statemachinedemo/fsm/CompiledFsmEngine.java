@@ -0,0 +1,99 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
+import pl.arimr.statemachinedemo.enums.FsmStage;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmConflictException;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Engine for flat machines: transition definitions are compiled into a {@link TransitionIndex}
+ * once, and an event is executed as guard, action and persist without building a machine.
+ * <p>
+ * Guards and actions get a {@link StateContext} exposing the extended state and the event, as they would in a
+ * Spring machine. There is no machine, source or target {@link org.springframework.statemachine.state.State}
+ * in that context, and no listeners are notified.
+ */
+@Slf4j
+public class CompiledFsmEngine<S, E, T> implements FsmEngine<S, E, T> {
+
+    private final String name;
+
+    private final TransitionIndex<S, E, T> transitions;
+
+    private final StateMachinePersist<S, E, T> persist;
+
+    private final Function<T, S> entityState;
+
+    private final FsmMetrics metrics;
+
+    public CompiledFsmEngine(String name, TransitionIndex<S, E, T> transitions, StateMachinePersist<S, E, T> persist,
+                             Function<T, S> entityState, FsmMetrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+        this.transitions = transitions;
+        this.persist = persist;
+        this.entityState = entityState;
+    }
+
+    @Override
+    public TransitionResult<S, E, T> sendEvent(T entity, E event) {
+        TransitionResult<S, E, T> result = evaluate(entity, event);
+        if (!result.isAccepted()) {
+            return result;
+        }
+        long start = metrics.start();
+        try {
+            persist.write(new DefaultStateMachineContext<>(result.getTarget(), event, null, null), entity);
+        } catch (FsmConflictException e) {
+            metrics.outcome(name, result.getSource(), event, TransitionOutcome.CONFLICT);
+            return TransitionResult.conflict(entity, event, result.getSource(), e.getMessage());
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            metrics.record(FsmStage.PERSIST, name, result.getSource(), result.getTarget(), event, start);
+        }
+        metrics.outcome(name, result.getSource(), event, TransitionOutcome.ACCEPTED);
+        return result;
+    }
+
+    @Override
+    public TransitionResult<S, E, T> evaluate(T entity, E event) {
+        S source = entityState.apply(entity);
+        TransitionDefinition<S, E> transition = transitions.find(source, event);
+        if (transition == null) {
+            log.debug("FSM Event not accepted: {}", event);
+            metrics.notAccepted(name, source, event);
+            return TransitionResult.rejected(entity, event, source, FsmTransitionException.DEFAULT_MESSAGE);
+        }
+
+        Map<Object, Object> variables = new HashMap<>(4);
+        StateContext<S, E> stateContext = transitions.createContext(entity, event, variables);
+
+        if (transition.getGuard() != null && !transition.getGuard().evaluate(stateContext)) {
+            return rejected(entity, event, source, variables);
+        }
+        if (transition.getAction() != null) {
+            transition.getAction().execute(stateContext);
+        }
+        if (variables.containsKey(FsmExtendedStateCons.ERROR)) {
+            return rejected(entity, event, source, variables);
+        }
+        return TransitionResult.accepted(entity, event, source, transition.getTarget());
+    }
+
+    private TransitionResult<S, E, T> rejected(T entity, E event, S source, Map<Object, Object> variables) {
+        Object error = variables.get(FsmExtendedStateCons.ERROR);
+        metrics.outcome(name, source, event, TransitionOutcome.REJECTED);
+        return TransitionResult.rejected(entity, event, source, error != null ? error.toString() : FsmTransitionException.DEFAULT_MESSAGE);
+    }
+}
@@ -0,0 +1,80 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.hibernate.Hibernate;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes one field of an entity class, for properties the persist writes together with the state but
+ * that have no public setter, like a deadline. {@link FsmStateAccessor} is the accessor of the state itself.
+ * <p>
+ * The field is turned into method handles once, so an access pays for a handle invocation instead of reflection.
+ * A Hibernate proxy is unwrapped first (initializing it), since the proxy's own fields are never populated.
+ */
+public class EntityFieldAccessor<T, V> {
+
+    private final Field field;
+
+    private final MethodHandle getter;
+
+    private final MethodHandle setter;
+
+    EntityFieldAccessor(Field field) {
+        this.field = field;
+        field.setAccessible(true);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access field " + field, e);
+        }
+    }
+
+    /**
+     * Not cached, keep the instance.
+     *
+     * @throws IllegalArgumentException if neither the class nor its superclasses declare the field
+     */
+    public static <T, V> EntityFieldAccessor<T, V> of(Class<T> entityType, String fieldName) {
+        for (Class<?> type = entityType; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.getName().equals(fieldName)) {
+                    return new EntityFieldAccessor<>(field);
+                }
+            }
+        }
+        throw new IllegalArgumentException("No field " + fieldName + " in " + entityType.getName());
+    }
+
+    /**
+     * Name of the field, which is also its JPA property name.
+     */
+    public String getName() {
+        return field.getName();
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(T entity) {
+        try {
+            return (V) getter.invokeExact(Hibernate.unproxy(entity));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot read " + field, e);
+        }
+    }
+
+    public void set(T entity, V value) {
+        try {
+            setter.invokeExact(Hibernate.unproxy(entity), (Object) value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot write " + field, e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the new machine state together with every other updatable column of a managed entity in one UPDATE,
+ * then marks the entity clean in the persistence context, so the flush does not write the row a second time.
+ * <p>
+ * The state column may be mapped {@code updatable = false}: it is written here and nowhere else. Only entities
+ * mapped to a single table and without {@code @Version} are supported, see {@link #supports(Object)}.
+ */
+public class EntityRowUpdater {
+
+    private final EntityManager entityManager;
+
+    public EntityRowUpdater(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    public boolean supports(Object entity) {
+        EntityEntry entry = entityManager.unwrap(SessionImplementor.class).getPersistenceContext().getEntry(entity);
+        return entry != null && entry.getPersister() instanceof SingleTableEntityPersister && !entry.getPersister().isVersioned();
+    }
+
+    /**
+     * @param stateProperty name of the {@link FsmState} property
+     * @param expectedState if not null, the row is only updated while it still holds this state
+     * @return {@code false} if no row was updated
+     */
+    public boolean update(Object entity, String stateProperty, Object state, Object expectedState) throws SQLException {
+        return update(entity, stateProperty, state, expectedState, Collections.emptyMap());
+    }
+
+    /**
+     * @param companions properties written together with the state, like the state, even when not updatable
+     */
+    public boolean update(Object entity, String stateProperty, Object state, Object expectedState,
+                          Map<String, ?> companions) throws SQLException {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        EntityEntry entry = session.getPersistenceContext().getEntry(entity);
+        if (!entry.isExistsInDatabase()) {
+            // the INSERT is still queued, the UPDATE would find no row
+            session.flush();
+        }
+        SingleTableEntityPersister persister = (SingleTableEntityPersister) entry.getPersister();
+        int stateIndex = persister.getPropertyIndex(stateProperty);
+        Object[] values = persister.getPropertyValues(entity);
+        values[stateIndex] = state;
+        boolean[] written = persister.getPropertyUpdateability().clone();
+        written[stateIndex] = true;
+        for (Map.Entry<String, ?> companion : companions.entrySet()) {
+            int index = persister.getPropertyIndex(companion.getKey());
+            values[index] = companion.getValue();
+            written[index] = true;
+        }
+
+        List<Integer> properties = new ArrayList<>();
+        List<String> assignments = new ArrayList<>();
+        Type[] types = persister.getPropertyTypes();
+        for (int i = 0; i < values.length; i++) {
+            if (written[i] && !types[i].isCollectionType()) {
+                for (String column : persister.getPropertyColumnNames(i)) {
+                    assignments.add(column + "=?");
+                }
+                properties.add(i);
+            }
+        }
+        StringBuilder sql = new StringBuilder("UPDATE ").append(persister.getTableName())
+                .append(" SET ").append(String.join(", ", assignments))
+                .append(" WHERE ").append(String.join("=? AND ", persister.getIdentifierColumnNames())).append("=?");
+        if (expectedState != null) {
+            sql.append(" AND ").append(persister.getPropertyColumnNames(stateIndex)[0]).append("=?");
+        }
+
+        JdbcCoordinator jdbc = session.getJdbcCoordinator();
+        PreparedStatement statement = jdbc.getStatementPreparer().prepareStatement(sql.toString());
+        int updated;
+        try {
+            int index = 1;
+            for (int i : properties) {
+                types[i].nullSafeSet(statement, values[i], index, session);
+                index += types[i].getColumnSpan(session.getFactory());
+            }
+            persister.getIdentifierType().nullSafeSet(statement, entry.getId(), index, session);
+            index += persister.getIdentifierType().getColumnSpan(session.getFactory());
+            if (expectedState != null) {
+                types[stateIndex].nullSafeSet(statement, expectedState, index, session);
+            }
+            updated = jdbc.getResultSetReturn().executeUpdate(statement);
+        } finally {
+            jdbc.getLogicalConnection().getResourceRegistry().release(statement);
+            jdbc.afterStatementExecution();
+        }
+        if (updated > 0) {
+            // the row now matches the entity, the flush has nothing left to write
+            entry.postUpdate(entity, values, null);
+        }
+        return updated > 0;
+    }
+}
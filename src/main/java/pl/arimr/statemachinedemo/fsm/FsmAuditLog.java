@@ -0,0 +1,246 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.arimr.statemachinedemo.enums.FsmAuditOverflow;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes transition outcomes to {@code TRANSITION_HISTORY} off the caller's thread.
+ * <p>
+ * Records go into a bounded buffer ({@code fsm.audit.capacity}) and a background writer inserts them with
+ * JDBC batches of up to {@code fsm.audit.batch-size}. Accepted transitions are buffered only after their
+ * transaction commits, so rolled back changes are not audited. When the buffer is full
+ * {@code fsm.audit.overflow} decides between blocking, dropping and writing synchronously. Buffered records
+ * are written before the application context closes.
+ */
+@Slf4j
+@Component
+public class FsmAuditLog {
+
+    private static final String INSERT = "INSERT INTO TRANSITION_HISTORY (MACHINE, ENTITY_ID, FROM_STATE, TO_STATE, EVENT, OUTCOME, CREATED_DATE) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final boolean enabled;
+
+    private final FsmAuditOverflow overflow;
+
+    private final int batchSize;
+
+    private final long flushIntervalMillis;
+
+    private final long offerTimeoutMillis;
+
+    private final BlockingQueue<Record> buffer;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Object flushed = new Object();
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public FsmAuditLog(JdbcTemplate jdbcTemplate, FsmProperties fsmProperties) {
+        FsmProperties.Audit properties = fsmProperties.getAudit();
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = properties.isEnabled();
+        this.overflow = properties.getOverflow();
+        this.batchSize = properties.getBatchSize();
+        this.flushIntervalMillis = properties.getFlushInterval().toMillis();
+        this.offerTimeoutMillis = properties.getOfferTimeout().toMillis();
+        this.buffer = new ArrayBlockingQueue<>(properties.getCapacity());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::run, "fsm-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer once the buffer is empty; whatever it did not get to is written here.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        List<Record> rest = new ArrayList<>();
+        buffer.drainTo(rest);
+        if (!rest.isEmpty()) {
+            write(rest);
+        }
+    }
+
+    public void record(String machine, Object entityId, TransitionResult<?, ?, ?> result) {
+        if (!enabled) {
+            return;
+        }
+        Record record = new Record(machine, entityId, result.getSource(), result.getTarget(), result.getEvent(),
+                result.getOutcome().name(), LocalDateTime.now());
+        if (result.isAccepted() && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enqueue(record);
+                }
+            });
+        } else {
+            enqueue(record);
+        }
+    }
+
+    /**
+     * Waits until every buffered record is written.
+     *
+     * @return {@code false} if records are still pending after the timeout
+     */
+    public boolean flush(Duration timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        synchronized (flushed) {
+            long remaining;
+            while (pending.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                flushed.wait(remaining);
+            }
+        }
+        return pending.get() == 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    private void enqueue(Record record) {
+        pending.incrementAndGet();
+        if (buffer.offer(record)) {
+            return;
+        }
+        switch (overflow) {
+            case BLOCK:
+                try {
+                    if (buffer.offer(record, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // a stalled writer must not stall transitions, fall back to dropping
+            case DROP:
+                written(1);
+                if (dropped.incrementAndGet() % 1000 == 1) {
+                    log.warn("FSM audit buffer full, {} records dropped so far", dropped.get());
+                }
+                return;
+            default:
+                break;
+        }
+        write(Collections.singletonList(record));
+    }
+
+    private void run() {
+        List<Record> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                Record first = buffer.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Record> records) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT, records, records.size(), (statement, record) -> {
+                statement.setString(1, record.machine);
+                statement.setObject(2, record.entityId);
+                statement.setString(3, name(record.source));
+                statement.setString(4, name(record.target));
+                statement.setString(5, name(record.event));
+                statement.setString(6, record.outcome);
+                statement.setTimestamp(7, Timestamp.valueOf(record.createdDate));
+            });
+        } catch (RuntimeException e) {
+            log.error("Lost {} FSM audit records: {}", records.size(), e.getMessage(), e);
+        } finally {
+            written(records.size());
+        }
+    }
+
+    private void written(int count) {
+        if (pending.addAndGet(-count) == 0) {
+            synchronized (flushed) {
+                flushed.notifyAll();
+            }
+        }
+    }
+
+    private static String name(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static final class Record {
+        private final String machine;
+        private final Object entityId;
+        private final Object source;
+        private final Object target;
+        private final Object event;
+        private final String outcome;
+        private final LocalDateTime createdDate;
+
+        private Record(String machine, Object entityId, Object source, Object target, Object event, String outcome,
+                       LocalDateTime createdDate) {
+            this.machine = machine;
+            this.entityId = entityId;
+            this.source = source;
+            this.target = target;
+            this.event = event;
+            this.outcome = outcome;
+            this.createdDate = createdDate;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+
+@Configuration
+public class FsmClockConfig {
+
+    /**
+     * Time source of transition deadlines; tests replace it with a clock they control.
+     */
+    @Bean
+    public Clock fsmClock() {
+        return Clock.systemDefaultZone();
+    }
+}
@@ -0,0 +1,59 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@link StateMachineContext} per state, built once and shared by every restore of that state.
+ * <p>
+ * A restored context depends on nothing but the state: its extended state is empty, and the engine adds the entity
+ * after restoring (restoring copies the variables into the machine). The state is always taken from the loaded
+ * entity, so nothing here can go stale; the conditional status update remains the arbiter of concurrent changes.
+ */
+public class FsmContextCache<S extends Enum<S>, E> implements MeterBinder {
+
+    private final String name;
+
+    private final Map<S, StateMachineContext<S, E>> contexts;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    public FsmContextCache(String name, Class<S> stateType) {
+        this.name = name;
+        Map<S, StateMachineContext<S, E>> contexts = new EnumMap<>(stateType);
+        for (S state : stateType.getEnumConstants()) {
+            contexts.put(state, new DefaultStateMachineContext<>(state, null, Collections.emptyMap(),
+                    new DefaultExtendedState(Collections.emptyMap())));
+        }
+        this.contexts = Collections.unmodifiableMap(contexts);
+    }
+
+    /**
+     * Context restoring {@code state}.
+     */
+    public StateMachineContext<S, E> context(S state) {
+        hits.incrementAndGet();
+        return contexts.get(state);
+    }
+
+    /**
+     * Number of restores served with a shared context.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fsm.cache.hits", hits, AtomicLong::get).tags("machine", name).register(registry);
+    }
+}
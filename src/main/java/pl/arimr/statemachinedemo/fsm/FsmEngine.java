@@ -0,0 +1,19 @@
+package pl.arimr.statemachinedemo.fsm;
+
+/**
+ * Runs a single event for an entity: guard, action and persistence of the new state.
+ * Merging the entity itself is left to the calling service.
+ * <p>
+ * Refused and conflicting transitions are reported in the returned {@link TransitionResult}, not thrown.
+ */
+public interface FsmEngine<S, E, T> {
+
+    TransitionResult<S, E, T> sendEvent(T entity, E event);
+
+    /**
+     * Runs guard and action like {@link #sendEvent(Object, Object)} but does not persist anything.
+     *
+     * @return result whose target is the state the entity has to be moved to
+     */
+    TransitionResult<S, E, T> evaluate(T entity, E event);
+}
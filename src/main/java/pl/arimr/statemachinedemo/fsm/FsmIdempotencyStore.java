@@ -0,0 +1,233 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Results of events sent with an idempotency key, so that an event delivered again (at-least-once queues) is
+ * answered from the first delivery's result instead of running the machine and writing again.
+ * <p>
+ * Results are written to PROCESSED_EVENT on the connection of the caller's transaction, so a key is stored exactly
+ * when its transition commits, and are visible to every node. The insert runs under a savepoint: a key stored by a
+ * concurrent delivery fails only that statement, not the caller's transaction, on databases that abort a
+ * transaction at its first error. Recently used keys are also kept in memory, in a
+ * {@link SegmentedLruCache} whose entries expire after {@code fsm.idempotency.ttl}. Only accepted and rejected results
+ * are stored; conflicts and failures are transient, and a redelivery should try again. Rows older than
+ * {@code fsm.idempotency.retention} are purged.
+ * <p>
+ * Keys are scoped to the machine type and at most {@link #KEY_LENGTH} characters long.
+ */
+@Slf4j
+public class FsmIdempotencyStore<S, E> implements MeterBinder {
+
+    public static final int KEY_LENGTH = 100;
+
+    /**
+     * Longest message stored; a result's message is only informative.
+     */
+    private static final int MESSAGE_LENGTH = 255;
+
+    private static final String INSERT = "INSERT INTO PROCESSED_EVENT "
+            + "(EVENT_KEY, MACHINE, ENTITY_ID, EVENT, OUTCOME, FROM_STATE, TO_STATE, MESSAGE, CREATED_DATE) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT = "SELECT EVENT, OUTCOME, FROM_STATE, TO_STATE, MESSAGE FROM PROCESSED_EVENT WHERE EVENT_KEY = ? AND MACHINE = ?";
+
+    private static final String PURGE = "DELETE FROM PROCESSED_EVENT WHERE MACHINE = ? AND CREATED_DATE < ?";
+
+    private final String name;
+
+    private final Function<String, S> states;
+
+    private final Function<String, E> events;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final FsmProperties.Idempotency properties;
+
+    private final SegmentedLruCache<String, TransitionResult<S, E, ?>> results;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    private final AtomicLong tableHits = new AtomicLong();
+
+    /**
+     * @param states parses a stored state name
+     * @param events parses a stored event name
+     */
+    public FsmIdempotencyStore(String name, Function<String, S> states, Function<String, E> events, JdbcTemplate jdbcTemplate,
+                               FsmProperties.Idempotency properties) {
+        this.name = name;
+        this.states = states;
+        this.events = events;
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.results = new SegmentedLruCache<>(properties.getMaximumSize(), properties.getTtl());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * @return the stored result of the key, without entity; null if the key was not processed
+     * @throws IllegalArgumentException if the key is longer than {@link #KEY_LENGTH}
+     */
+    public TransitionResult<S, E, ?> find(String key) {
+        checkKey(key);
+        TransitionResult<S, E, ?> result = results.get(key);
+        if (result != null) {
+            memoryHits.incrementAndGet();
+            return result;
+        }
+        List<TransitionResult<S, E, Object>> stored = jdbcTemplate.query(SELECT, (resultSet, row) -> result(
+                resultSet.getString(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4), resultSet.getString(5)),
+                key, name);
+        if (stored.isEmpty()) {
+            return null;
+        }
+        tableHits.incrementAndGet();
+        results.put(key, stored.get(0));
+        return stored.get(0);
+    }
+
+    /**
+     * Stores the result of the key's first delivery in the current transaction; kept in memory once it commits.
+     *
+     * @return false if the key was stored meanwhile by a concurrent delivery; the caller must roll back
+     * @throws IllegalArgumentException if the key is longer than {@link #KEY_LENGTH}
+     */
+    public boolean record(String key, Object entityId, TransitionResult<S, E, ?> result) {
+        checkKey(key);
+        if (result.getOutcome() != TransitionOutcome.ACCEPTED && result.getOutcome() != TransitionOutcome.REJECTED) {
+            return true;
+        }
+        Object[] values = {key, name, entityId, name(result.getEvent()), result.getOutcome().name(), name(result.getSource()),
+                name(result.getTarget()), truncate(result.getMessage()), Timestamp.valueOf(LocalDateTime.now())};
+        if (!jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> insert(connection, values))) {
+            return false;
+        }
+        TransitionResult<S, E, ?> stored = result.withEntity(null);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    results.put(key, stored);
+                }
+            });
+        } else {
+            results.put(key, stored);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes keys older than the retention.
+     */
+    @Scheduled(fixedDelayString = "#{@fsmProperties.idempotency.purgeInterval.toMillis()}")
+    public int purge() {
+        if (!isEnabled()) {
+            return 0;
+        }
+        int purged = jdbcTemplate.update(PURGE, name, Timestamp.valueOf(LocalDateTime.now().minus(properties.getRetention())));
+        if (purged > 0) {
+            log.debug("Purged {} processed event keys of {}", purged, name);
+        }
+        return purged;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fsm.idempotency.duplicates", memoryHits, AtomicLong::get).tags("machine", name, "source", "memory").register(registry);
+        FunctionCounter.builder("fsm.idempotency.duplicates", tableHits, AtomicLong::get).tags("machine", name, "source", "table").register(registry);
+        Gauge.builder("fsm.idempotency.size", this, FsmIdempotencyStore::size).tags("machine", name).register(registry);
+    }
+
+    private TransitionResult<S, E, Object> result(String event, String outcome, String source, String target, String message) {
+        E parsedEvent = events.apply(event);
+        S parsedSource = source != null ? states.apply(source) : null;
+        switch (TransitionOutcome.valueOf(outcome)) {
+            case ACCEPTED:
+                return TransitionResult.accepted(null, parsedEvent, parsedSource, target != null ? states.apply(target) : null);
+            case REJECTED:
+                return TransitionResult.rejected(null, parsedEvent, parsedSource, message);
+            default:
+                throw new IllegalStateException("Unexpected stored outcome " + outcome);
+        }
+    }
+
+    /**
+     * @return false if the key is already stored; the transaction stays usable
+     */
+    private boolean insert(Connection connection, Object[] values) throws SQLException {
+        Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            for (int i = 0; i < values.length; i++) {
+                StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, values[i]);
+            }
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            DataAccessException translated = jdbcTemplate.getExceptionTranslator().translate("Idempotency key insert", INSERT, e);
+            if (translated instanceof DuplicateKeyException) {
+                return false;
+            }
+            throw e;
+        }
+        if (savepoint != null) {
+            release(connection, savepoint);
+        }
+        return true;
+    }
+
+    private static void release(Connection connection, Savepoint savepoint) {
+        try {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            // not every driver releases savepoints explicitly; they end with the transaction anyway
+            log.debug("Savepoint not released: {}", e.getMessage());
+        }
+    }
+
+    private static void checkKey(String key) {
+        if (key.length() > KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key longer than " + KEY_LENGTH + " characters: " + key.substring(0, KEY_LENGTH) + "...");
+        }
+    }
+
+    private static String name(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > MESSAGE_LENGTH ? message.substring(0, MESSAGE_LENGTH) : message;
+    }
+}
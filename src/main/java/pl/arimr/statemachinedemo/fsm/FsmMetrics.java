@@ -0,0 +1,70 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import pl.arimr.statemachinedemo.enums.FsmStage;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+
+import java.util.List;
+
+/**
+ * Instrumentation points of engines and services. With {@code fsm.metrics.enabled=false} the {@link #NOOP}
+ * instance is used: no clock reads, no meter lookups and guards and actions are not wrapped.
+ * <p>
+ * Tags are the machine type and, where known, source state, target state and event.
+ */
+public interface FsmMetrics {
+
+    FsmMetrics NOOP = new FsmMetrics() {
+        @Override
+        public long start() {
+            return 0L;
+        }
+
+        @Override
+        public void record(FsmStage stage, String machine, Object source, Object target, Object event, long start) {
+        }
+
+        @Override
+        public void outcome(String machine, Object source, Object event, TransitionOutcome outcome) {
+        }
+
+        @Override
+        public void notAccepted(String machine, Object source, Object event) {
+        }
+
+        @Override
+        public void transitionStarted(String machine) {
+        }
+
+        @Override
+        public void transitionFinished(String machine) {
+        }
+
+        @Override
+        public <S, E> List<TransitionDefinition<S, E>> instrument(String machine, List<TransitionDefinition<S, E>> definitions) {
+            return definitions;
+        }
+    };
+
+    /**
+     * @return start of a timed stage, to be passed to {@link #record}
+     */
+    long start();
+
+    void record(FsmStage stage, String machine, Object source, Object target, Object event, long start);
+
+    void outcome(String machine, Object source, Object event, TransitionOutcome outcome);
+
+    /**
+     * The source state has no transition for the event.
+     */
+    void notAccepted(String machine, Object source, Object event);
+
+    void transitionStarted(String machine);
+
+    void transitionFinished(String machine);
+
+    /**
+     * Wraps guards and actions so their execution is timed.
+     */
+    <S, E> List<TransitionDefinition<S, E>> instrument(String machine, List<TransitionDefinition<S, E>> definitions);
+}
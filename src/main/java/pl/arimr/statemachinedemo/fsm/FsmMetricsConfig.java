@@ -0,0 +1,22 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Slf4j
+@Configuration
+public class FsmMetricsConfig {
+
+    @Bean
+    public FsmMetrics fsmMetrics(final FsmProperties fsmProperties, final ObjectProvider<MeterRegistry> meterRegistry) {
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (!fsmProperties.getMetrics().isEnabled() || registry == null) {
+            log.info("FSM metrics disabled");
+            return FsmMetrics.NOOP;
+        }
+        return new MicrometerFsmMetrics(registry);
+    }
+}
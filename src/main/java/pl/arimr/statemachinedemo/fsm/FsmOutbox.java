@@ -0,0 +1,55 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Writes accepted transitions to OUTBOX_EVENT. The insert runs on the connection of the caller's transaction,
+ * so a row exists exactly when the status change it describes commits; {@link FsmOutboxRelay} publishes it later.
+ */
+@Component
+public class FsmOutbox {
+
+    private static final String INSERT = "INSERT INTO OUTBOX_EVENT (MACHINE, ENTITY_ID, EVENT, FROM_STATE, TO_STATE, CREATED_DATE, ATTEMPTS) "
+            + "VALUES (?, ?, ?, ?, ?, ?, 0)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final boolean enabled;
+
+    public FsmOutbox(JdbcTemplate jdbcTemplate, FsmProperties fsmProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = fsmProperties.getOutbox().isEnabled();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends the accepted results with one JDBC batch; other results are skipped.
+     */
+    public <T> void append(String machine, List<TransitionResult<?, ?, T>> results, Function<T, Object> entityId) {
+        if (!enabled) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT, results, results.size(), (statement, result) -> {
+            statement.setString(1, machine);
+            statement.setObject(2, entityId.apply(result.getEntity()));
+            statement.setString(3, name(result.getEvent()));
+            statement.setString(4, name(result.getSource()));
+            statement.setString(5, name(result.getTarget()));
+            statement.setTimestamp(6, now);
+        });
+    }
+
+    private static String name(Object value) {
+        return value != null ? value.toString() : null;
+    }
+}
@@ -0,0 +1,27 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Delivers outbox messages downstream (message broker, HTTP, ...). Register one as a bean; without one
+ * {@link #LOGGING} is used, which only logs the messages at debug level.
+ * <p>
+ * Delivery is at least once: a batch is published again when {@link #publish(List)} throws, or when its node
+ * stops before marking it published and the claim expires.
+ */
+public interface FsmOutboxPublisher {
+
+    FsmOutboxPublisher LOGGING = messages -> {
+        for (OutboxMessage message : messages) {
+            LoggerFactory.getLogger(FsmOutboxPublisher.class).debug("FSM outbox {}", message);
+        }
+    };
+
+    /**
+     * @param messages claimed messages in id order
+     * @throws Exception to have the whole batch retried after the claim timeout
+     */
+    void publish(List<OutboxMessage> messages) throws Exception;
+}
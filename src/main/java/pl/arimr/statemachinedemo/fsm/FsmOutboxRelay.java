@@ -0,0 +1,121 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Publishes OUTBOX_EVENT rows through the {@link FsmOutboxPublisher}, every {@code fsm.outbox.poll-interval}.
+ * <p>
+ * Rows are claimed before they are published: one committed UPDATE stamps up to {@code fsm.outbox.batch-size}
+ * unclaimed rows with a token unique to this claim and a {@code fsm.outbox.claim-timeout} deadline, and only rows
+ * carrying the token are read back. Several nodes can therefore run the relay against one table without
+ * publishing the same row twice. This plays the part of {@code SELECT ... FOR UPDATE SKIP LOCKED}, which H2
+ * does not have. A claim of a node that dies, or whose publisher fails, expires and the rows are claimed again.
+ * <p>
+ * Published rows are kept for {@code fsm.outbox.retention} and then purged.
+ */
+@Slf4j
+@Component
+public class FsmOutboxRelay {
+
+    private static final String CLAIMABLE = "PUBLISHED_DATE IS NULL AND (CLAIMED_UNTIL IS NULL OR CLAIMED_UNTIL < ?)";
+
+    private static final String CLAIM = "UPDATE OUTBOX_EVENT SET CLAIMED_BY = ?, CLAIMED_UNTIL = ? WHERE " + CLAIMABLE
+            + " AND ID IN (SELECT ID FROM OUTBOX_EVENT WHERE " + CLAIMABLE + " ORDER BY ID LIMIT ?)";
+
+    private static final String CLAIMED = "SELECT ID, MACHINE, ENTITY_ID, EVENT, FROM_STATE, TO_STATE, CREATED_DATE, ATTEMPTS "
+            + "FROM OUTBOX_EVENT WHERE CLAIMED_BY = ? ORDER BY ID";
+
+    private static final String PUBLISHED = "UPDATE OUTBOX_EVENT SET PUBLISHED_DATE = ?, CLAIMED_BY = NULL, CLAIMED_UNTIL = NULL WHERE CLAIMED_BY = ?";
+
+    private static final String FAILED = "UPDATE OUTBOX_EVENT SET ATTEMPTS = ATTEMPTS + 1 WHERE CLAIMED_BY = ?";
+
+    private static final String PURGE = "DELETE FROM OUTBOX_EVENT WHERE PUBLISHED_DATE < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final FsmOutboxPublisher publisher;
+
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final long claimTimeoutMillis;
+
+    private final Duration retention;
+
+    public FsmOutboxRelay(JdbcTemplate jdbcTemplate, FsmProperties fsmProperties, ObjectProvider<FsmOutboxPublisher> publisher) {
+        FsmProperties.Outbox properties = fsmProperties.getOutbox();
+        this.jdbcTemplate = jdbcTemplate;
+        this.publisher = publisher.getIfAvailable(() -> FsmOutboxPublisher.LOGGING);
+        this.enabled = properties.isEnabled();
+        this.batchSize = properties.getBatchSize();
+        this.claimTimeoutMillis = properties.getClaimTimeout().toMillis();
+        this.retention = properties.getRetention();
+    }
+
+    @Scheduled(fixedDelayString = "#{@fsmProperties.outbox.pollInterval.toMillis()}",
+            initialDelayString = "#{@fsmProperties.outbox.pollInterval.toMillis()}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            while (relay() == batchSize) {
+                // full batch, more may be waiting
+            }
+        } catch (RuntimeException e) {
+            log.error("FSM outbox relay failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Claims and publishes one batch. Each statement commits on its own, so this must not run in a transaction.
+     *
+     * @return number of messages published
+     */
+    public int relay() {
+        String claim = UUID.randomUUID().toString();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Timestamp claimedUntil = new Timestamp(now.getTime() + claimTimeoutMillis);
+        if (jdbcTemplate.update(CLAIM, claim, claimedUntil, now, now, batchSize) == 0) {
+            return 0;
+        }
+        List<OutboxMessage> messages = jdbcTemplate.query(CLAIMED, (row, rowNum) -> new OutboxMessage(
+                row.getLong(1), row.getString(2), (Long) row.getObject(3), row.getString(4), row.getString(5),
+                row.getString(6), row.getTimestamp(7).toLocalDateTime(), row.getInt(8)), claim);
+        try {
+            publisher.publish(messages);
+        } catch (Exception e) {
+            log.warn("FSM outbox publish of {} messages failed, retrying after claim timeout: {}", messages.size(), e.getMessage());
+            jdbcTemplate.update(FAILED, claim);
+            return 0;
+        }
+        jdbcTemplate.update(PUBLISHED, Timestamp.valueOf(LocalDateTime.now()), claim);
+        return messages.size();
+    }
+
+    /**
+     * Deletes rows published longer than the retention ago.
+     */
+    @Scheduled(fixedDelayString = "#{@fsmProperties.outbox.purgeInterval.toMillis()}")
+    public int purge() {
+        if (!enabled) {
+            return 0;
+        }
+        int purged = jdbcTemplate.update(PURGE, Timestamp.valueOf(LocalDateTime.now().minus(retention)));
+        if (purged > 0) {
+            log.debug("Purged {} published outbox rows", purged);
+        }
+        return purged;
+    }
+}
@@ -0,0 +1,347 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import pl.arimr.statemachinedemo.enums.FsmAuditOverflow;
+import pl.arimr.statemachinedemo.enums.FsmBackpressure;
+import pl.arimr.statemachinedemo.enums.FsmEngineType;
+import pl.arimr.statemachinedemo.enums.FsmPersistMode;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Getter
+@Component
+@ConfigurationProperties(prefix = "fsm")
+public class FsmProperties {
+
+    private final Pool pool = new Pool();
+
+    private final Batch batch = new Batch();
+
+    private final Persist persist = new Persist();
+
+    private final Dispatcher dispatcher = new Dispatcher();
+
+    private final Metrics metrics = new Metrics();
+
+    private final Audit audit = new Audit();
+
+    private final Counters counters = new Counters();
+
+    private final Bulk bulk = new Bulk();
+
+    private final Ingest ingest = new Ingest();
+
+    private final Cache cache = new Cache();
+
+    private final Outbox outbox = new Outbox();
+
+    private final Timers timers = new Timers();
+
+    private final Stream stream = new Stream();
+
+    private final Idempotency idempotency = new Idempotency();
+
+    private final Snapshot snapshot = new Snapshot();
+
+    private final Scheduler scheduler = new Scheduler();
+
+    /**
+     * Engine per machine type, keyed by the machine's factory name. Machine types not listed use {@link FsmEngineType#SPRING}.
+     */
+    private final Map<String, FsmEngineType> engines = new HashMap<>();
+
+    /**
+     * Timeouts of states per machine type, keyed by the machine's factory name and the state name. States not listed
+     * use the timeout of their definition.
+     */
+    private final Map<String, Map<String, Duration>> timeouts = new HashMap<>();
+
+    @Getter
+    @Setter
+    public static class Pool {
+        /**
+         * When disabled every event gets a freshly built state machine.
+         */
+        private boolean enabled = true;
+        /**
+         * Maximum number of idle machines kept per machine type.
+         */
+        private int size = 16;
+        /**
+         * Block callers when all machines are in use instead of building extra ones.
+         */
+        private boolean blocking = false;
+        /**
+         * How long a blocking acquire waits before giving up.
+         */
+        private Duration maxWait = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Batch {
+        /**
+         * Number of entities evaluated before their status changes are flushed.
+         */
+        private int chunkSize = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class Persist {
+        private FsmPersistMode mode = FsmPersistMode.UNCONDITIONAL;
+        /**
+         * Write the state and the changes made by actions in one UPDATE, instead of a state UPDATE
+         * followed by the flush of the merged entity. Applies to managed entities.
+         */
+        private boolean singleStatement = false;
+    }
+
+    @Getter
+    @Setter
+    public static class Dispatcher {
+        /**
+         * Number of single-threaded stripes; events of one entity always land on the same stripe.
+         */
+        private int workers = Runtime.getRuntime().availableProcessors();
+        /**
+         * Maximum number of queued events per stripe.
+         */
+        private int queueCapacity = 1000;
+        /**
+         * What happens to an event sent to a full stripe.
+         */
+        private FsmBackpressure backpressure = FsmBackpressure.BLOCK;
+        /**
+         * How long a producer blocks on a full stripe before the event is rejected.
+         */
+        private Duration offerTimeout = Duration.ofSeconds(1);
+        /**
+         * How long shutdown waits for queued events; the ones still queued after it are rejected.
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Getter
+    @Setter
+    public static class Metrics {
+        /**
+         * Publish transition timers, counters and gauges to the meter registry.
+         */
+        private boolean enabled = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Audit {
+        /**
+         * Record transition outcomes in TRANSITION_HISTORY.
+         */
+        private boolean enabled = true;
+        /**
+         * Maximum number of records waiting for the writer.
+         */
+        private int capacity = 10000;
+        /**
+         * Maximum number of rows per JDBC batch.
+         */
+        private int batchSize = 500;
+        /**
+         * How long the writer waits for more records before it checks for shutdown.
+         */
+        private Duration flushInterval = Duration.ofMillis(200);
+        /**
+         * What happens to a record when the buffer is full.
+         */
+        private FsmAuditOverflow overflow = FsmAuditOverflow.BLOCK;
+        /**
+         * How long a caller blocks on a full buffer before the record is dropped.
+         */
+        private Duration offerTimeout = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Counters {
+        /**
+         * Keep per organization unit status counts in memory.
+         */
+        private boolean enabled = true;
+        /**
+         * How often the counts are compared with the table and corrected.
+         */
+        private Duration reconcileInterval = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Bulk {
+        /**
+         * Threads running bulk job chunks, shared by all jobs.
+         */
+        private int workers = Runtime.getRuntime().availableProcessors();
+        /**
+         * Number of applications read and sent per chunk transaction.
+         */
+        private int chunkSize = 500;
+        /**
+         * Maximum number of refused items a job keeps in its progress; further ones are only counted.
+         */
+        private int maxFailures = 1000;
+    }
+
+    @Getter
+    @Setter
+    public static class Ingest {
+        /**
+         * Number of new entities inserted per transaction; the persistence context is cleared after each.
+         */
+        private int chunkSize = 1000;
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+        /**
+         * Share one immutable restored context per state instead of building one per restore.
+         */
+        private boolean enabled = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Outbox {
+        /**
+         * Record accepted transitions in OUTBOX_EVENT and relay them to the publisher.
+         */
+        private boolean enabled = true;
+        /**
+         * Maximum number of messages claimed and published at once.
+         */
+        private int batchSize = 100;
+        /**
+         * Pause between relay runs that found nothing more to publish.
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+        /**
+         * How long claimed messages are reserved for a node; after a failed publish, the delay before a retry.
+         */
+        private Duration claimTimeout = Duration.ofSeconds(30);
+        /**
+         * How long published messages are kept in OUTBOX_EVENT.
+         */
+        private Duration retention = Duration.ofDays(7);
+        /**
+         * How often messages published longer than the retention ago are deleted.
+         */
+        private Duration purgeInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Timers {
+        /**
+         * Fire timeout transitions whose deadline has passed. Needs {@code fsm.persist.mode=compare-and-set}, since
+         * every node fires the deadlines it knows.
+         */
+        private boolean enabled = false;
+        /**
+         * Resolution of the timing wheel, also the interval between firing runs.
+         */
+        private Duration tickDuration = Duration.ofSeconds(1);
+        /**
+         * Number of timing wheel buckets, rounded up to a power of two.
+         */
+        private int wheelSize = 4096;
+        /**
+         * Maximum number of timed out entities sent their event in one transaction.
+         */
+        private int batchSize = 500;
+        /**
+         * Delay before deadlines of a failed batch are fired again.
+         */
+        private Duration retryDelay = Duration.ofMinutes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Scheduler {
+        /**
+         * Number of threads running the scheduled jobs: timeouts, outbox relay, counters, snapshots and purges.
+         */
+        private int poolSize = 4;
+    }
+
+    @Getter
+    @Setter
+    public static class Stream {
+        /**
+         * Number of lines of a streamed request sent in one transaction, and answered before the next is read.
+         */
+        private int chunkSize = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class Idempotency {
+        /**
+         * Answer events sent again with the same idempotency key from the stored result.
+         */
+        private boolean enabled = true;
+        /**
+         * Maximum number of results kept in memory per machine type.
+         */
+        private int maximumSize = 100000;
+        /**
+         * How long a result stays in memory; older keys are looked up in PROCESSED_EVENT.
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+        /**
+         * How long keys are kept in PROCESSED_EVENT; must exceed the redelivery window of the event source.
+         */
+        private Duration retention = Duration.ofDays(7);
+        /**
+         * How often keys older than the retention are deleted.
+         */
+        private Duration purgeInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Snapshot {
+        /**
+         * Keep application statuses in a memory-mapped snapshot file, reloaded at startup.
+         */
+        private boolean enabled = false;
+        /**
+         * Snapshot file; must not be shared by nodes of different databases.
+         */
+        private String file = "application-status.snapshot";
+        /**
+         * How often changes committed since the last poll are read from the database.
+         */
+        private Duration catchUpInterval = Duration.ofSeconds(1);
+        /**
+         * How often the snapshot file is rewritten.
+         */
+        private Duration writeInterval = Duration.ofMinutes(5);
+        /**
+         * How long a missing change id is read again before it is taken for a rolled-back transaction.
+         */
+        private Duration gapTimeout = Duration.ofHours(1);
+        /**
+         * How long rows of APPLICATION_CHANGE are kept; an older snapshot file is rebuilt.
+         */
+        private Duration retention = Duration.ofDays(7);
+        /**
+         * How often changes recorded longer than the retention ago are deleted.
+         */
+        private Duration purgeInterval = Duration.ofHours(1);
+    }
+}
@@ -0,0 +1,38 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Bounded retry of an event after a {@link pl.arimr.statemachinedemo.exceptions.FsmConflictException}.
+ * Every retry re-reads the entity and fires the event again; the wait before retry {@code n} is {@code n * backoff}.
+ */
+@Getter
+public final class FsmRetryPolicy {
+
+    private static final FsmRetryPolicy NONE = new FsmRetryPolicy(1, Duration.ZERO);
+
+    private final int maxAttempts;
+    private final Duration backoff;
+
+    private FsmRetryPolicy(int maxAttempts, Duration backoff) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+    }
+
+    public static FsmRetryPolicy none() {
+        return NONE;
+    }
+
+    public static FsmRetryPolicy of(int maxAttempts, Duration backoff) {
+        return new FsmRetryPolicy(maxAttempts, backoff);
+    }
+
+    public long backoffMillis(int attempt) {
+        return backoff.toMillis() * attempt;
+    }
+}
@@ -0,0 +1,25 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Configuration
+public class FsmSchedulerConfig {
+
+    /**
+     * Runs the {@code @Scheduled} jobs; without a scheduler bean they all share one thread, so a slow outbox relay
+     * or snapshot would hold back the timeouts.
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(final FsmProperties fsmProperties) {
+        int poolSize = fsmProperties.getScheduler().getPoolSize();
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("FSM scheduler pool size must be positive");
+        }
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("fsm-scheduler-");
+        return scheduler;
+    }
+}
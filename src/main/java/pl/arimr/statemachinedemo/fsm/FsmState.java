@@ -0,0 +1,17 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the entity field holding the machine state. The field may be private and without a setter,
+ * it is written by the persist through {@link FsmStateAccessor}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface FsmState {
+}
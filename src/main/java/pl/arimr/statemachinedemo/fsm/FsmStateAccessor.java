@@ -0,0 +1,40 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes the {@link FsmState} field of an entity class. Other fields the persist writes together with the
+ * state have an {@link EntityFieldAccessor} of their own.
+ * <p>
+ * The field is looked up once per class and turned into method handles, so a transition pays for a handle
+ * invocation instead of {@code getDeclaredField} and {@code setAccessible}.
+ */
+public final class FsmStateAccessor<T, S> extends EntityFieldAccessor<T, S> {
+
+    private static final ClassValue<FsmStateAccessor<?, ?>> ACCESSORS = new ClassValue<FsmStateAccessor<?, ?>>() {
+        @Override
+        protected FsmStateAccessor<?, ?> computeValue(Class<?> entityType) {
+            return new FsmStateAccessor<>(stateField(entityType));
+        }
+    };
+
+    private FsmStateAccessor(Field field) {
+        super(field);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T, S> FsmStateAccessor<T, S> of(Class<T> entityType) {
+        return (FsmStateAccessor<T, S>) ACCESSORS.get(entityType);
+    }
+
+    private static Field stateField(Class<?> entityType) {
+        for (Class<?> type = entityType; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.isAnnotationPresent(FsmState.class)) {
+                    return field;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No @FsmState field in " + entityType.getName());
+    }
+}
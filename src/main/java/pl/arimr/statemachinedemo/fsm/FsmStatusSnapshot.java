@@ -0,0 +1,282 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only, memory-mapped snapshot of the states of one entity type, in a columnar file:
+ * <pre>
+ * header   magic, version, change mark, created (epoch millis), row count, unit count, state count
+ * units    per unit: length (unsigned short) and UTF-8 bytes
+ * starts   state count + 1 ints, where the rows of each state start in the by-state column; then padding to 8 bytes
+ * ids      row count longs, ascending
+ * states   row count bytes, the state ordinal of each id
+ * units    row count unsigned shorts, the unit index of each id, {@link #NO_UNIT} for none
+ * by state row count ints, the row indexes grouped by state, ascending within a state
+ * </pre>
+ * Lookups read the mapped columns directly: an id is found by binary search over the id column, and the rows of
+ * a state by binary search over its range of the by-state column; nothing is copied to the heap but the
+ * organization unit names and the state starts. The mark is the change id up to which the snapshot contains
+ * every change; see {@link pl.arimr.statemachinedemo.service.ApplicationStatusSnapshot}.
+ * <p>
+ * A file is written next to its destination and moved over it, so readers never map a partial file. A mapping
+ * stays valid after its file was replaced; it is released when the snapshot is garbage collected.
+ */
+public final class FsmStatusSnapshot {
+
+    public static final int NO_UNIT = 0xFFFF;
+
+    private static final int MAGIC = 0x46534D53;
+
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    private final long changeMark;
+
+    private final long created;
+
+    private final int size;
+
+    private final String[] units;
+
+    private final LongBuffer ids;
+
+    private final ByteBuffer states;
+
+    private final CharBuffer unitIndexes;
+
+    private final int[] starts;
+
+    private final IntBuffer byState;
+
+    private FsmStatusSnapshot(MappedByteBuffer buffer, Path file) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException(file + " is not a status snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(file + " has unsupported snapshot version " + version);
+        }
+        this.changeMark = buffer.getLong();
+        this.created = buffer.getLong();
+        this.size = buffer.getInt();
+        this.units = new String[buffer.getInt()];
+        this.starts = new int[buffer.getInt() + 1];
+        for (int i = 0; i < units.length; i++) {
+            byte[] name = new byte[buffer.getChar()];
+            buffer.get(name);
+            units[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = buffer.getInt();
+        }
+        int idsOffset = align(buffer.position());
+        int statesOffset = idsOffset + size * 8;
+        int unitsOffset = statesOffset + size;
+        int byStateOffset = unitsOffset + size * 2;
+        if (buffer.limit() != byStateOffset + size * 4 || starts[starts.length - 1] != size) {
+            throw new IllegalArgumentException(file + " is truncated or corrupt");
+        }
+        this.ids = slice(buffer, idsOffset, size * 8).asLongBuffer();
+        this.states = slice(buffer, statesOffset, size);
+        this.unitIndexes = slice(buffer, unitsOffset, size * 2).asCharBuffer();
+        this.byState = slice(buffer, byStateOffset, size * 4).asIntBuffer();
+    }
+
+    /**
+     * Maps an existing snapshot file.
+     *
+     * @throws IllegalArgumentException if the file is not a complete snapshot
+     */
+    public static FsmStatusSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(file + " is too large for a status snapshot");
+            }
+            return new FsmStatusSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    /**
+     * Writes a snapshot and replaces {@code file} with it.
+     *
+     * @param ids          ascending ids
+     * @param states       state ordinal of each id
+     * @param unitIndexes  index into {@code units} of each id, {@link #NO_UNIT} for none
+     * @param units        distinct organization unit names, fewer than {@link #NO_UNIT}
+     */
+    public static void write(Path file, long changeMark, long[] ids, byte[] states, char[] unitIndexes, String[] units)
+            throws IOException {
+        if (units.length >= NO_UNIT) {
+            throw new IllegalArgumentException("Status snapshot supports fewer than " + NO_UNIT + " units: " + units.length);
+        }
+        int size = ids.length;
+        int stateCount = 0;
+        for (int i = 0; i < size; i++) {
+            stateCount = Math.max(stateCount, states[i] + 1);
+        }
+        // counting sort of the row indexes by state; rows of a state stay in id order
+        int[] starts = new int[stateCount + 1];
+        for (int i = 0; i < size; i++) {
+            starts[states[i] + 1]++;
+        }
+        for (int state = 0; state < stateCount; state++) {
+            starts[state + 1] += starts[state];
+        }
+        int[] next = Arrays.copyOf(starts, stateCount);
+        int[] byState = new int[size];
+        for (int i = 0; i < size; i++) {
+            byState[next[states[i]]++] = i;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temporary);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(changeMark);
+                output.writeLong(System.currentTimeMillis());
+                output.writeInt(size);
+                output.writeInt(units.length);
+                output.writeInt(stateCount);
+                for (String unit : units) {
+                    byte[] name = unit.getBytes(StandardCharsets.UTF_8);
+                    output.writeChar(name.length);
+                    output.write(name);
+                }
+                for (int start : starts) {
+                    output.writeInt(start);
+                }
+                while (output.size() % 8 != 0) {
+                    output.writeByte(0);
+                }
+                for (int i = 0; i < size; i++) {
+                    output.writeLong(ids[i]);
+                }
+                output.write(states, 0, size);
+                for (int i = 0; i < size; i++) {
+                    output.writeChar(unitIndexes[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    output.writeInt(byState[i]);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Change id up to which the snapshot contains every change.
+     */
+    public long getChangeMark() {
+        return changeMark;
+    }
+
+    /**
+     * When the snapshot was written, in epoch millis.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return position of the id, or {@code -(insertion point) - 1} if absent, as {@link java.util.Arrays#binarySearch}
+     */
+    public int indexOf(long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = ids.get(middle);
+            if (value < id) {
+                low = middle + 1;
+            } else if (value > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    public long getId(int index) {
+        return ids.get(index);
+    }
+
+    public int getState(int index) {
+        return states.get(index);
+    }
+
+    /**
+     * @return organization unit of the row, null for none
+     */
+    public String getUnit(int index) {
+        int unit = unitIndexes.get(index);
+        return unit != NO_UNIT ? units[unit] : null;
+    }
+
+    /**
+     * @return number of rows in the state
+     */
+    public int countOf(int state) {
+        return state + 1 < starts.length ? starts[state + 1] - starts[state] : 0;
+    }
+
+    /**
+     * @return row index of the {@code n}th row in the state, in ascending id order
+     */
+    public int rowOf(int state, int n) {
+        return byState.get(starts[state] + n);
+    }
+
+    /**
+     * @return {@code n} of the first row in the state with an id greater than {@code id}, {@link #countOf} if none
+     */
+    public int firstAfter(int state, long id) {
+        int low = 0;
+        int high = countOf(state) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ids.get(rowOf(state, middle)) <= id) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+}
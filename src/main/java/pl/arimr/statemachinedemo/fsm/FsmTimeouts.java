@@ -0,0 +1,130 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timeout transitions of one machine type and the pending deadlines of its entities.
+ * <p>
+ * The persist stores the deadline of the new state next to the state and, once the change commits, schedules the
+ * entity id in a single {@link HashedTimingWheel}. Nothing is scheduled per machine: whoever fires the timeouts
+ * takes the expired ids from {@link #expire()} and must check them against the stored deadline, since the wheel
+ * keeps ids of entities that have left the state in the meantime.
+ * <p>
+ * Timeouts configured in {@code fsm.timeouts.<machine>.<state>} replace the defaults of the definitions.
+ */
+public class FsmTimeouts<S, E> implements MeterBinder {
+
+    private final String name;
+
+    private final Map<S, TimeoutDefinition<S, E>> definitions = new HashMap<>();
+
+    private final Clock clock;
+
+    private final boolean enabled;
+
+    private final HashedTimingWheel wheel;
+
+    public FsmTimeouts(String name, List<TimeoutDefinition<S, E>> definitions, List<TransitionDefinition<S, E>> transitions,
+                       FsmProperties fsmProperties, Clock clock) {
+        this.name = name;
+        this.clock = clock;
+        for (TimeoutDefinition<S, E> definition : definitions) {
+            if (transitions.stream().noneMatch(transition -> transition.getSource().equals(definition.getState())
+                    && transition.getEvent().equals(definition.getEvent()))) {
+                throw new IllegalArgumentException("No " + definition.getEvent() + " transition from " + definition.getState() + " in " + name);
+            }
+            Duration timeout = fsmProperties.getTimeouts().getOrDefault(name, Collections.emptyMap())
+                    .getOrDefault(String.valueOf(definition.getState()), definition.getTimeout());
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("Timeout of " + definition.getState() + " in " + name + " must be positive");
+            }
+            this.definitions.put(definition.getState(), new TimeoutDefinition<>(definition.getState(), definition.getEvent(), timeout));
+        }
+        FsmProperties.Timers timers = fsmProperties.getTimers();
+        this.enabled = timers.isEnabled();
+        this.wheel = new HashedTimingWheel(timers.getTickDuration().toMillis(), timers.getWheelSize(), clock.millis());
+    }
+
+    /**
+     * @return the timeout of the state, or null if it has none
+     */
+    public TimeoutDefinition<S, E> get(S state) {
+        return definitions.get(state);
+    }
+
+    public Collection<TimeoutDefinition<S, E>> getDefinitions() {
+        return Collections.unmodifiableCollection(definitions.values());
+    }
+
+    /**
+     * @return when an entity entering the state now times out, or null if the state has no timeout
+     */
+    public LocalDateTime deadline(S state) {
+        TimeoutDefinition<S, E> definition = definitions.get(state);
+        return definition != null ? now().plus(definition.getTimeout()) : null;
+    }
+
+    public LocalDateTime now() {
+        return LocalDateTime.now(clock);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schedules the deadline once the current transaction commits, or immediately without one.
+     */
+    public void scheduleAfterCommit(long id, LocalDateTime deadline) {
+        if (!enabled || deadline == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    schedule(id, deadline);
+                }
+            });
+        } else {
+            schedule(id, deadline);
+        }
+    }
+
+    public void schedule(long id, LocalDateTime deadline) {
+        wheel.schedule(id, toMillis(deadline));
+    }
+
+    /**
+     * @return ids whose deadline has passed, possibly stale
+     */
+    public long[] expire() {
+        return wheel.expire(clock.millis());
+    }
+
+    public int pending() {
+        return wheel.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fsm.timers.pending", this, FsmTimeouts::pending).tags("machine", name).register(registry);
+    }
+
+    private long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(clock.getZone()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,120 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import java.util.Arrays;
+
+/**
+ * Deadlines of many entities, organized as a hashed timing wheel: a ring of buckets, one per tick, where an entry
+ * goes to the bucket of its deadline's tick modulo the ring size. Advancing the wheel only looks at the buckets of
+ * the ticks that passed, and an entry more than a rotation away simply stays in its bucket until its round comes.
+ * <p>
+ * Entries are bare {@code long} pairs (id, deadline in epoch millis) in per-bucket arrays, so millions of pending
+ * deadlines cost a few tens of megabytes and no objects per entry. The wheel does not deduplicate or cancel:
+ * callers check expired ids against the current deadline of their entity.
+ */
+public final class HashedTimingWheel {
+
+    private final long tickMillis;
+
+    private final int mask;
+
+    private final Bucket[] buckets;
+
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("Timing wheel tick and size must be positive");
+        }
+        int buckets = Integer.highestOneBit(wheelSize - 1 > 0 ? wheelSize - 1 : 1) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = buckets - 1;
+        this.buckets = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Adds a deadline. One that has already passed expires with the next {@link #expire(long)}.
+     */
+    public synchronized void schedule(long id, long deadlineMillis) {
+        long tick = Math.max(deadlineMillis / tickMillis, currentTick + 1);
+        buckets[(int) (tick & mask)].add(id, deadlineMillis);
+        size++;
+    }
+
+    /**
+     * Advances the wheel to {@code nowMillis}.
+     *
+     * @return ids whose deadline is not later than {@code nowMillis}, in no particular order
+     */
+    public synchronized long[] expire(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        if (nowTick <= currentTick) {
+            return new long[0];
+        }
+        Bucket expired = new Bucket();
+        long ticks = nowTick - currentTick;
+        if (ticks >= buckets.length) {
+            for (Bucket bucket : buckets) {
+                bucket.expire(nowMillis, expired);
+            }
+        } else {
+            for (long tick = currentTick + 1; tick <= nowTick; tick++) {
+                buckets[(int) (tick & mask)].expire(nowMillis, expired);
+            }
+        }
+        currentTick = nowTick;
+        size -= expired.size;
+        return Arrays.copyOf(expired.ids, expired.size);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static final class Bucket {
+
+        private long[] ids = new long[4];
+
+        private long[] deadlines = new long[4];
+
+        private int size;
+
+        void add(long id, long deadline) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                deadlines = Arrays.copyOf(deadlines, size * 2);
+            }
+            ids[size] = id;
+            deadlines[size] = deadline;
+            size++;
+        }
+
+        /**
+         * Moves due entries to {@code expired}; the last entry takes the place of a removed one.
+         */
+        void expire(long nowMillis, Bucket expired) {
+            for (int i = 0; i < size; ) {
+                if (deadlines[i] <= nowMillis) {
+                    expired.add(ids[i], deadlines[i]);
+                    size--;
+                    ids[i] = ids[size];
+                    deadlines[i] = deadlines[size];
+                } else {
+                    i++;
+                }
+            }
+            if (size == 0 && ids.length > 64) {
+                ids = new long[4];
+                deadlines = new long[4];
+            }
+        }
+    }
+}
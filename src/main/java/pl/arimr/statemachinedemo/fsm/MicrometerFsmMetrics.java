@@ -0,0 +1,140 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.guard.Guard;
+import pl.arimr.statemachinedemo.enums.FsmStage;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes {@link FsmMetrics} to Micrometer:
+ * <ul>
+ * <li>{@code fsm.transition.stage} - timer per {@link FsmStage}</li>
+ * <li>{@code fsm.events} - counter per outcome: accepted, rejected, not_accepted, conflict, failed</li>
+ * <li>{@code fsm.transitions.in-flight} - gauge of transitions being processed</li>
+ * </ul>
+ * Meters are cached, so a recording does not go through the registry.
+ */
+public class MicrometerFsmMetrics implements FsmMetrics {
+
+    private static final String NONE = "none";
+
+    private static final String NOT_ACCEPTED = "not_accepted";
+
+    private final MeterRegistry registry;
+
+    private final Map<List<Object>, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Map<List<Object>, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public MicrometerFsmMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public long start() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void record(FsmStage stage, String machine, Object source, Object target, Object event, long start) {
+        long duration = System.nanoTime() - start;
+        timers.computeIfAbsent(Arrays.asList(stage, machine, source, target, event), key -> Timer.builder("fsm.transition.stage")
+                .tags(tags(machine, source, event).and("stage", stage.name().toLowerCase(Locale.ROOT), "target", tag(target)))
+                .register(registry))
+                .record(duration, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void outcome(String machine, Object source, Object event, TransitionOutcome outcome) {
+        count(machine, source, event, outcome.name().toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public void notAccepted(String machine, Object source, Object event) {
+        count(machine, source, event, NOT_ACCEPTED);
+    }
+
+    @Override
+    public void transitionStarted(String machine) {
+        gauge(machine).incrementAndGet();
+    }
+
+    @Override
+    public void transitionFinished(String machine) {
+        gauge(machine).decrementAndGet();
+    }
+
+    @Override
+    public <S, E> List<TransitionDefinition<S, E>> instrument(String machine, List<TransitionDefinition<S, E>> definitions) {
+        List<TransitionDefinition<S, E>> instrumented = new ArrayList<>(definitions.size());
+        for (TransitionDefinition<S, E> definition : definitions) {
+            instrumented.add(new TransitionDefinition<>(definition.getSource(), definition.getTarget(), definition.getEvent(),
+                    timed(machine, definition, definition.getGuard()), timed(machine, definition, definition.getAction())));
+        }
+        return Collections.unmodifiableList(instrumented);
+    }
+
+    private <S, E> Guard<S, E> timed(String machine, TransitionDefinition<S, E> definition, Guard<S, E> guard) {
+        if (guard == null) {
+            return null;
+        }
+        return context -> {
+            long start = start();
+            try {
+                return guard.evaluate(context);
+            } finally {
+                record(FsmStage.GUARD, machine, definition.getSource(), definition.getTarget(), definition.getEvent(), start);
+            }
+        };
+    }
+
+    private <S, E> Action<S, E> timed(String machine, TransitionDefinition<S, E> definition, Action<S, E> action) {
+        if (action == null) {
+            return null;
+        }
+        return context -> {
+            long start = start();
+            try {
+                action.execute(context);
+            } finally {
+                record(FsmStage.ACTION, machine, definition.getSource(), definition.getTarget(), definition.getEvent(), start);
+            }
+        };
+    }
+
+    private void count(String machine, Object source, Object event, String outcome) {
+        counters.computeIfAbsent(Arrays.asList(outcome, machine, source, event), key -> Counter.builder("fsm.events")
+                .tags(tags(machine, source, event).and("outcome", outcome))
+                .register(registry))
+                .increment();
+    }
+
+    private AtomicInteger gauge(String machine) {
+        return inFlight.computeIfAbsent(machine, key ->
+                registry.gauge("fsm.transitions.in-flight", Tags.of("machine", machine), new AtomicInteger()));
+    }
+
+    private static Tags tags(String machine, Object source, Object event) {
+        return Tags.of("machine", machine, "source", tag(source), "event", tag(event));
+    }
+
+    private static String tag(Object value) {
+        return value != null ? value.toString() : NONE;
+    }
+}
@@ -0,0 +1,36 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Accepted transition as handed to a {@link FsmOutboxPublisher}. The id is unique and increases with the order
+ * transitions were recorded; consumers can use it to drop duplicates.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class OutboxMessage {
+
+    private final long id;
+
+    private final String machine;
+
+    private final Long entityId;
+
+    private final String event;
+
+    private final String fromState;
+
+    private final String toState;
+
+    private final LocalDateTime createdDate;
+
+    /**
+     * Number of earlier publish attempts that failed.
+     */
+    private final int attempts;
+}
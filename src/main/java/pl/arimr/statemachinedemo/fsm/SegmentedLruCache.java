@@ -0,0 +1,124 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory map split into independently locked segments, each evicting its least recently used entry
+ * beyond its share of the maximum size. Entries expire a fixed time after they were put.
+ */
+public class SegmentedLruCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private final long ttlNanos;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public SegmentedLruCache(int maximumSize, Duration ttl) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache maximum size must be positive: " + maximumSize);
+        }
+        this.ttlNanos = ttl.toNanos();
+        int segmentSize = Math.max(1, maximumSize / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>(segmentSize, evictions);
+        }
+    }
+
+    /**
+     * @return the value, or null if there is none or it expired
+     */
+    public V get(K key) {
+        return segment(key).get(key, System.nanoTime());
+    }
+
+    public void put(K key, V value) {
+        segment(key).put(key, new Node<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    public void remove(K key) {
+        segment(key).remove(key);
+    }
+
+    /**
+     * Entries held, expired ones included until they are read or evicted.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private Segment<K, V> segment(K key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static final class Node<V> {
+        private final V value;
+        private final long expires;
+
+        private Node(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Access-ordered map evicting its eldest entry beyond the segment size.
+     */
+    private static final class Segment<K, V> {
+
+        private final Map<K, Node<V>> entries;
+
+        private Segment(int maximumSize, AtomicLong evictions) {
+            this.entries = new LinkedHashMap<K, Node<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Node<V>> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized V get(K key, long now) {
+            Node<V> node = entries.get(key);
+            if (node == null) {
+                return null;
+            }
+            if (node.expires - now <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return node.value;
+        }
+
+        synchronized void put(K key, Node<V> node) {
+            entries.put(key, node);
+        }
+
+        synchronized void remove(K key) {
+            entries.remove(key);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
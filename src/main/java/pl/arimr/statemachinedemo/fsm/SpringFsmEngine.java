@@ -0,0 +1,227 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.persist.StateMachinePersister;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
+import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
+import pl.arimr.statemachinedemo.enums.FsmStage;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmConflictException;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Engine backed by the Spring Statemachine runtime. Machines come from the machine type's factory,
+ * optionally through a {@link StateMachinePool}. Events the entity's state has no transition for are refused
+ * before a machine is taken.
+ */
+@Slf4j
+public class SpringFsmEngine<S, E, T> implements FsmEngine<S, E, T> {
+
+    private final String name;
+
+    private final StateMachineFactory<S, E> stateMachineFactory;
+
+    private final StateMachinePersister<S, E, T> persister;
+
+    private final Function<T, S> entityState;
+
+    private final StateMachinePool<S, E> pool;
+
+    private final S initialState;
+
+    private final Map<S, Set<E>> triggers;
+
+    private final FsmMetrics metrics;
+
+    public SpringFsmEngine(String name, StateMachineFactory<S, E> stateMachineFactory, StateMachinePersister<S, E, T> persister,
+                           Function<T, S> entityState, FsmProperties.Pool poolProperties, FsmMetrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+        this.stateMachineFactory = stateMachineFactory;
+        this.persister = persister;
+        this.entityState = entityState;
+        this.pool = poolProperties.isEnabled() ? new StateMachinePool<>(name, stateMachineFactory::getStateMachine, poolProperties) : null;
+        StateMachine<S, E> prototype = stateMachineFactory.getStateMachine();
+        this.initialState = prototype.getInitialState().getId();
+        this.triggers = triggers(prototype);
+    }
+
+    @Override
+    public TransitionResult<S, E, T> sendEvent(T entity, E event) {
+        S source = entityState.apply(entity);
+        if (!accepts(source, event)) {
+            return notAccepted(entity, event, source);
+        }
+        StateMachine<S, E> fsm = prepare(entity, source, event);
+        try {
+            TransitionResult<S, E, T> result = fire(fsm, entity, event, source);
+            if (!result.isAccepted()) {
+                return result;
+            }
+            long start = metrics.start();
+            try {
+                persister.persist(fsm, entity);
+            } catch (FsmConflictException e) {
+                metrics.outcome(name, source, event, TransitionOutcome.CONFLICT);
+                return TransitionResult.conflict(entity, event, source, e.getMessage());
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                throw new RuntimeException(e.getMessage(), e);
+            } finally {
+                metrics.record(FsmStage.PERSIST, name, source, result.getTarget(), event, start);
+            }
+            metrics.outcome(name, source, event, TransitionOutcome.ACCEPTED);
+            return result;
+        } finally {
+            release(fsm);
+        }
+    }
+
+    @Override
+    public TransitionResult<S, E, T> evaluate(T entity, E event) {
+        S source = entityState.apply(entity);
+        if (!accepts(source, event)) {
+            return notAccepted(entity, event, source);
+        }
+        StateMachine<S, E> fsm = prepare(entity, source, event);
+        try {
+            return fire(fsm, entity, event, source);
+        } finally {
+            release(fsm);
+        }
+    }
+
+    private TransitionResult<S, E, T> fire(StateMachine<S, E> fsm, T entity, E event, S source) {
+        Boolean success = fsm.sendEvent(event);
+        Object error = fsm.getExtendedState().getVariables().get(FsmExtendedStateCons.ERROR);
+        if (error != null) {
+            metrics.outcome(name, source, event, TransitionOutcome.REJECTED);
+            return TransitionResult.rejected(entity, event, source, error.toString());
+        }
+        if (!success) {
+            metrics.notAccepted(name, source, event);
+            return TransitionResult.rejected(entity, event, source, FsmTransitionException.DEFAULT_MESSAGE);
+        }
+        return TransitionResult.accepted(entity, event, source, fsm.getState().getId());
+    }
+
+    /**
+     * Answers from the transition table without building or restoring a machine. Always true when the table
+     * could not be derived (see {@link #triggers(StateMachine)}).
+     */
+    private boolean accepts(S source, E event) {
+        if (triggers == null) {
+            return true;
+        }
+        Set<E> events = triggers.get(source != null ? source : initialState);
+        return events != null && events.contains(event);
+    }
+
+    private TransitionResult<S, E, T> notAccepted(T entity, E event, S source) {
+        log.debug("FSM Event not accepted: {}", event);
+        metrics.notAccepted(name, source, event);
+        return TransitionResult.rejected(entity, event, source, FsmTransitionException.DEFAULT_MESSAGE);
+    }
+
+    /**
+     * Events accepted per source state. Only flat machines with event-triggered transitions qualify: with nested
+     * states or triggerless transitions the answer depends on more than the entity's state, so {@code null} is returned.
+     */
+    private static <S, E> Map<S, Set<E>> triggers(StateMachine<S, E> stateMachine) {
+        for (State<S, E> state : stateMachine.getStates()) {
+            if (state.isComposite() || state.isOrthogonal() || state.isSubmachineState()) {
+                return null;
+            }
+        }
+        Map<S, Set<E>> triggers = new HashMap<>();
+        for (Transition<S, E> transition : stateMachine.getTransitions()) {
+            if (transition.getTrigger() == null || transition.getTrigger().getEvent() == null) {
+                return null;
+            }
+            triggers.computeIfAbsent(transition.getSource().getId(), source -> new HashSet<>()).add(transition.getTrigger().getEvent());
+        }
+        return triggers;
+    }
+
+    private StateMachine<S, E> prepare(T entity, S source, E event) {
+        long start = metrics.start();
+        try {
+            return getFsm(entity);
+        } finally {
+            metrics.record(FsmStage.ACQUIRE, name, source, null, event, start);
+        }
+    }
+
+    private void release(StateMachine<S, E> fsm) {
+        if (pool != null) {
+            pool.release(fsm);
+        }
+    }
+
+    /**
+     * Restoring replaces the extended state with the persisted context's, so the entity is put back afterwards.
+     */
+    private StateMachine<S, E> restore(T entity) {
+        StateMachine<S, E> stateMachine = restore(create(entity), entity);
+        stateMachine.getExtendedState().getVariables().put(FsmExtendedStateCons.ENTITY, entity);
+        return stateMachine;
+    }
+
+    private StateMachine<S, E> restore(StateMachine<S, E> stateMachine, T entity) {
+        try {
+            return persister.restore(stateMachine, entity);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private StateMachine<S, E> create(T entity) {
+        StateMachine<S, E> stateMachine = stateMachineFactory.getStateMachine();
+        stateMachine.start();
+        stateMachine.getExtendedState().getVariables().put(FsmExtendedStateCons.ENTITY, entity);
+        return stateMachine;
+    }
+
+    private StateMachine<S, E> getFsm(T entity) {
+        if (pool != null) {
+            return acquire(entity);
+        }
+        if (entityState.apply(entity) != null) {
+            return restore(entity);
+        } else {
+            return create(entity);
+        }
+    }
+
+    /**
+     * Takes a machine from the pool and resets it for the given entity. Restoring replaces the whole extended state,
+     * so variables left by the previous entity (e.g. {@link FsmExtendedStateCons#ERROR}) are dropped.
+     */
+    private StateMachine<S, E> acquire(T entity) {
+        StateMachine<S, E> stateMachine = pool.acquire();
+        try {
+            if (entityState.apply(entity) != null) {
+                restore(stateMachine, entity);
+            } else {
+                stateMachine.stop();
+                stateMachine.getStateMachineAccessor().doWithAllRegions(access -> access.resetStateMachine(null));
+                stateMachine.start();
+            }
+            stateMachine.getExtendedState().getVariables().put(FsmExtendedStateCons.ENTITY, entity);
+            return stateMachine;
+        } catch (RuntimeException e) {
+            pool.release(stateMachine);
+            throw e;
+        }
+    }
+}
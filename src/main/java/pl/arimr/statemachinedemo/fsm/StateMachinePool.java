@@ -0,0 +1,117 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of started state machines of a single machine type.
+ * <p>
+ * Machines handed out by {@link #acquire()} are owned by the caller until {@link #release(StateMachine)}.
+ * The pool does not reset the machine state - callers are expected to restore it for the processed entity.
+ * Extended state variables are cleared on release so no entity data outlives its event.
+ */
+@Slf4j
+public class StateMachinePool<S, E> {
+
+    private final String name;
+
+    private final Supplier<StateMachine<S, E>> factory;
+
+    private final BlockingQueue<StateMachine<S, E>> idle;
+
+    private final int size;
+
+    private final boolean blocking;
+
+    private final long maxWaitMillis;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    public StateMachinePool(String name, Supplier<StateMachine<S, E>> factory, FsmProperties.Pool properties) {
+        if (properties.getSize() < 1) {
+            throw new IllegalArgumentException("FSM pool size must be positive: " + properties.getSize());
+        }
+        this.name = name;
+        this.factory = factory;
+        this.size = properties.getSize();
+        this.blocking = properties.isBlocking();
+        this.maxWaitMillis = properties.getMaxWait().toMillis();
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    public StateMachine<S, E> acquire() {
+        StateMachine<S, E> stateMachine = idle.poll();
+        if (stateMachine != null) {
+            return stateMachine;
+        }
+        if (!blocking) {
+            created.incrementAndGet();
+            return create();
+        }
+        if (reserve()) {
+            return create();
+        }
+        try {
+            stateMachine = idle.poll(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for FSM " + name, e);
+        }
+        if (stateMachine == null) {
+            throw new IllegalStateException("Timed out waiting " + maxWaitMillis + "ms for FSM " + name);
+        }
+        return stateMachine;
+    }
+
+    public void release(StateMachine<S, E> stateMachine) {
+        stateMachine.getExtendedState().getVariables().clear();
+        if (!idle.offer(stateMachine)) {
+            // grow-on-demand overflow, machine is not kept
+            created.decrementAndGet();
+            stateMachine.stop();
+        }
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Machines created by the pool and not discarded: idle ones plus those acquired.
+     */
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = created.get();
+            if (current >= size) {
+                return false;
+            }
+        } while (!created.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Creates a machine already counted in {@link #created}; the count is given back if creation fails.
+     */
+    private StateMachine<S, E> create() {
+        log.debug("Creating FSM {} for pool", name);
+        try {
+            StateMachine<S, E> stateMachine = factory.get();
+            stateMachine.start();
+            return stateMachine;
+        } catch (RuntimeException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Event fired for an entity that stays in a state longer than the timeout.
+ */
+@Getter
+@AllArgsConstructor
+public class TimeoutDefinition<S, E> {
+
+    private final S state;
+    private final E event;
+    private final Duration timeout;
+}
@@ -0,0 +1,20 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.guard.Guard;
+
+/**
+ * Single external transition of a flat machine. Guard and action are optional.
+ */
+@Getter
+@AllArgsConstructor
+public class TransitionDefinition<S, E> {
+
+    private final S source;
+    private final S target;
+    private final E event;
+    private final Guard<S, E> guard;
+    private final Action<S, E> action;
+}
@@ -0,0 +1,180 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.statemachine.ExtendedState;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.state.PseudoStateKind;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.transition.TransitionKind;
+import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * {@code state -> event -> transition} table of a flat machine, built once from its {@link TransitionDefinition}s.
+ * <p>
+ * Answers which events a state accepts without creating a machine. Guards can optionally be evaluated against
+ * an entity; actions are never run and nothing is persisted.
+ */
+public final class TransitionIndex<S, E, T> {
+
+    private final Map<S, Map<E, TransitionDefinition<S, E>>> transitions;
+
+    private final Map<S, Set<E>> events;
+
+    private final Map<E, Message<E>> messages;
+
+    private final S initialState;
+
+    private final Supplier<Set<E>> eventSet;
+
+    private final Set<E> noEvents;
+
+    private TransitionIndex(Map<S, Map<E, TransitionDefinition<S, E>>> transitions, Map<S, Set<E>> events,
+                            Map<E, Message<E>> messages, S initialState, Supplier<Set<E>> eventSet) {
+        this.transitions = transitions;
+        this.events = events;
+        this.messages = messages;
+        this.initialState = initialState;
+        this.eventSet = eventSet;
+        this.noEvents = Collections.unmodifiableSet(eventSet.get());
+    }
+
+    public static <S extends Enum<S>, E extends Enum<E>, T> TransitionIndex<S, E, T> of(Class<S> stateType, Class<E> eventType, S initialState,
+                                                                                       Collection<TransitionDefinition<S, E>> definitions) {
+        Map<S, Map<E, TransitionDefinition<S, E>>> transitions = new EnumMap<>(stateType);
+        for (TransitionDefinition<S, E> definition : definitions) {
+            TransitionDefinition<S, E> previous = transitions
+                    .computeIfAbsent(definition.getSource(), s -> new EnumMap<>(eventType))
+                    .put(definition.getEvent(), definition);
+            if (previous != null) {
+                throw new IllegalArgumentException("Duplicate transition from " + definition.getSource() + " on " + definition.getEvent());
+            }
+        }
+        // shared, read-only answers for the guard-less lookups
+        Map<S, Set<E>> events = new EnumMap<>(stateType);
+        for (S state : stateType.getEnumConstants()) {
+            Map<E, TransitionDefinition<S, E>> byEvent = transitions.get(state);
+            events.put(state, Collections.unmodifiableSet(byEvent != null ? EnumSet.copyOf(byEvent.keySet()) : EnumSet.noneOf(eventType)));
+        }
+        // messages are immutable, one per event is enough
+        Map<E, Message<E>> messages = new EnumMap<>(eventType);
+        for (E event : eventType.getEnumConstants()) {
+            messages.put(event, new GenericMessage<>(event));
+        }
+        return new TransitionIndex<>(transitions, events, messages, initialState, () -> EnumSet.noneOf(eventType));
+    }
+
+    /**
+     * Index of the model of a Spring machine, e.g. one obtained from its
+     * {@link org.springframework.statemachine.config.StateMachineFactory}; the machine is not started.
+     *
+     * @throws IllegalArgumentException if the machine is not flat: states must be simple, without pseudo states
+     *                                  other than initial and end or state actions, and transitions external and
+     *                                  triggered by an event; states and events must be enums
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <S, E, T> TransitionIndex<S, E, T> of(StateMachine<S, E> stateMachine) {
+        for (State<S, E> state : stateMachine.getStates()) {
+            PseudoStateKind pseudoState = state.getPseudoState() != null ? state.getPseudoState().getKind() : null;
+            if (!state.isSimple() || (pseudoState != null && pseudoState != PseudoStateKind.INITIAL && pseudoState != PseudoStateKind.END)
+                    || !state.getEntryActions().isEmpty() || !state.getStateActions().isEmpty() || !state.getExitActions().isEmpty()) {
+                throw new IllegalArgumentException("State " + state.getId() + " is not a simple state without actions");
+            }
+        }
+        List<TransitionDefinition<S, E>> definitions = new ArrayList<>();
+        for (Transition<S, E> transition : stateMachine.getTransitions()) {
+            if (transition.getKind() != TransitionKind.EXTERNAL || transition.getTrigger() == null || transition.getTrigger().getEvent() == null) {
+                throw new IllegalArgumentException("Transition from " + transition.getSource().getId() + " is not an external transition on an event");
+            }
+            definitions.add(new TransitionDefinition<>(transition.getSource().getId(), transition.getTarget().getId(),
+                    transition.getTrigger().getEvent(), transition.getGuard(), action(transition.getActions())));
+        }
+        S initialState = stateMachine.getInitialState().getId();
+        if (!(initialState instanceof Enum) || definitions.isEmpty() || !(definitions.get(0).getEvent() instanceof Enum)) {
+            throw new IllegalArgumentException("Only machines with enum states and events are indexed");
+        }
+        Class stateType = ((Enum) initialState).getDeclaringClass();
+        Class eventType = ((Enum) definitions.get(0).getEvent()).getDeclaringClass();
+        return of(stateType, eventType, (Enum) initialState, (Collection) definitions);
+    }
+
+    /**
+     * State of an entity that has never been through the machine.
+     */
+    public S getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * @param state state of the entity, {@code null} for one that has never been through the machine
+     */
+    public TransitionDefinition<S, E> find(S state, E event) {
+        Map<E, TransitionDefinition<S, E>> byEvent = transitions.get(state != null ? state : initialState);
+        return byEvent != null ? byEvent.get(event) : null;
+    }
+
+    /**
+     * Events the state has a transition for, guards not considered. The returned set is shared and read-only.
+     */
+    public Set<E> getAvailableEvents(S state) {
+        return events.get(state != null ? state : initialState);
+    }
+
+    /**
+     * Events the state has a transition for whose guard passes for the entity. Guards see the same context as
+     * in {@link CompiledFsmEngine}, so one that records an error simply excludes its event.
+     */
+    public Set<E> getAvailableEvents(S state, T entity) {
+        Set<E> candidates = getAvailableEvents(state);
+        Set<E> available = eventSet.get();
+        for (E event : candidates) {
+            TransitionDefinition<S, E> transition = find(state, event);
+            if (transition.getGuard() == null || transition.getGuard().evaluate(createContext(entity, event, new HashMap<>(4)))) {
+                available.add(event);
+            }
+        }
+        if (available.size() == candidates.size()) {
+            return candidates;
+        }
+        return available.isEmpty() ? noEvents : Collections.unmodifiableSet(available);
+    }
+
+    private static <S, E> Action<S, E> action(Collection<Action<S, E>> actions) {
+        if (actions == null || actions.isEmpty()) {
+            return null;
+        }
+        if (actions.size() == 1) {
+            return actions.iterator().next();
+        }
+        List<Action<S, E>> sequence = new ArrayList<>(actions);
+        return context -> sequence.forEach(action -> action.execute(context));
+    }
+
+    /**
+     * Context for guards and actions run outside a machine: the extended state holds the entity and the given
+     * variables, there are no machine, source or target states.
+     */
+    StateContext<S, E> createContext(T entity, E event, Map<Object, Object> variables) {
+        variables.put(FsmExtendedStateCons.ENTITY, entity);
+        ExtendedState extendedState = new DefaultExtendedState(variables);
+        Message<E> message = messages.get(event);
+        return new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(), extendedState,
+                null, null, null, null, null);
+    }
+}
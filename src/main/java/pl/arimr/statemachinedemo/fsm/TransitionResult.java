@@ -0,0 +1,59 @@
+package pl.arimr.statemachinedemo.fsm;
+
+import lombok.Getter;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+
+/**
+ * Immutable outcome of a single event sent for an entity.
+ */
+@Getter
+public final class TransitionResult<S, E, T> {
+
+    private final T entity;
+    private final E event;
+    private final TransitionOutcome outcome;
+    private final S source;
+    private final S target;
+    private final String message;
+
+    private TransitionResult(T entity, E event, TransitionOutcome outcome, S source, S target, String message) {
+        this.entity = entity;
+        this.event = event;
+        this.outcome = outcome;
+        this.source = source;
+        this.target = target;
+        this.message = message;
+    }
+
+    public static <S, E, T> TransitionResult<S, E, T> accepted(T entity, E event, S source, S target) {
+        return new TransitionResult<>(entity, event, TransitionOutcome.ACCEPTED, source, target, null);
+    }
+
+    public static <S, E, T> TransitionResult<S, E, T> rejected(T entity, E event, S source, String message) {
+        return new TransitionResult<>(entity, event, TransitionOutcome.REJECTED, source, null, message);
+    }
+
+    public static <S, E, T> TransitionResult<S, E, T> conflict(T entity, E event, S source, String message) {
+        return new TransitionResult<>(entity, event, TransitionOutcome.CONFLICT, source, null, message);
+    }
+
+    public static <S, E, T> TransitionResult<S, E, T> failed(T entity, E event, S source, String message) {
+        return new TransitionResult<>(entity, event, TransitionOutcome.FAILED, source, null, message);
+    }
+
+    /**
+     * The same outcome for another entity instance, e.g. a stored result answering a redelivered event.
+     */
+    public <U> TransitionResult<S, E, U> withEntity(U entity) {
+        return new TransitionResult<>(entity, event, outcome, source, target, message);
+    }
+
+    public boolean isAccepted() {
+        return outcome == TransitionOutcome.ACCEPTED;
+    }
+
+    @Override
+    public String toString() {
+        return "TransitionResult[" + outcome + "," + event + "," + source + "->" + target + (message != null ? "," + message : "") + "]";
+    }
+}
@@ -1,9 +1,52 @@
 package pl.arimr.statemachinedemo.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.ApplicationSummary;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Status queries are keyset paginated: pass the last id of the previous page (or {@code 0}) and
+ * {@code PageRequest.of(0, size)}. Unlike OFFSET, every page is a range scan of IDX_APPLICATION_STATUS_UNIT_ID,
+ * however deep into the result it is.
+ */
 @Repository
-public interface ApplicationRespository extends JpaRepository<Application, Long> {
+public interface ApplicationRespository extends JpaRepository<Application, Long>, ApplicationRespositoryCustom {
+
+    /**
+     * @return rows of organization unit, status and count
+     */
+    @Query("SELECT a.organizationUnit, a.status, COUNT(a) FROM Application a GROUP BY a.organizationUnit, a.status")
+    List<Object[]> countByOrganizationUnitAndStatus();
+
+    /**
+     * Applications among {@code ids} whose deadline is not later than {@code now}; the others have left the state
+     * the deadline was set for.
+     */
+    @Query("SELECT a FROM Application a WHERE a.id IN :ids AND a.deadline <= :now")
+    List<Application> findTimedOut(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    @Query("SELECT a FROM Application a WHERE a.status = :status AND a.organizationUnit = :organizationUnit AND a.id > :afterId ORDER BY a.id")
+    List<Application> findPage(@Param("status") ApplicationStatus status,
+                               @Param("organizationUnit") String organizationUnit,
+                               @Param("afterId") long afterId,
+                               Pageable page);
+
+    /**
+     * Like {@link #findPage}, reading only the {@link ApplicationSummary} columns.
+     */
+    @Query("SELECT NEW pl.arimr.statemachinedemo.domain.ApplicationSummary(a.id, a.status, a.amount) FROM Application a "
+            + "WHERE a.status = :status AND a.organizationUnit = :organizationUnit AND a.id > :afterId ORDER BY a.id")
+    List<ApplicationSummary> findSummaryPage(@Param("status") ApplicationStatus status,
+                                             @Param("organizationUnit") String organizationUnit,
+                                             @Param("afterId") long afterId,
+                                             Pageable page);
 }
@@ -0,0 +1,24 @@
+package pl.arimr.statemachinedemo.repositories;
+
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.ApplicationSummary;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+
+import java.util.stream.Stream;
+
+/**
+ * Streaming status queries. Results are read in id order, {@value #STREAM_FETCH_SIZE} rows per round trip.
+ * Streams must be opened in a transaction and closed.
+ */
+public interface ApplicationRespositoryCustom {
+
+    int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * Entities are read-only (no snapshot, no dirty checking) but stay in the persistence context;
+     * clear it periodically on long streams.
+     */
+    Stream<Application> streamByStatus(ApplicationStatus status, String organizationUnit);
+
+    Stream<ApplicationSummary> streamSummariesByStatus(ApplicationStatus status, String organizationUnit);
+}
@@ -0,0 +1,49 @@
+package pl.arimr.statemachinedemo.repositories;
+
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.query.Query;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.ApplicationSummary;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.stream.Stream;
+
+/**
+ * Spring Data 2.0 does not pass {@code @QueryHints} to streamed queries, so the hints are set here.
+ */
+public class ApplicationRespositoryImpl implements ApplicationRespositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Stream<Application> streamByStatus(ApplicationStatus status, String organizationUnit) {
+        TypedQuery<Application> query = entityManager.createQuery(
+                "SELECT a FROM Application a WHERE a.status = :status AND a.organizationUnit = :organizationUnit ORDER BY a.id",
+                Application.class)
+                .setHint(QueryHints.HINT_READONLY, true);
+        return stream(query, status, organizationUnit);
+    }
+
+    @Override
+    public Stream<ApplicationSummary> streamSummariesByStatus(ApplicationStatus status, String organizationUnit) {
+        TypedQuery<ApplicationSummary> query = entityManager.createQuery(
+                "SELECT NEW pl.arimr.statemachinedemo.domain.ApplicationSummary(a.id, a.status, a.amount) FROM Application a "
+                        + "WHERE a.status = :status AND a.organizationUnit = :organizationUnit ORDER BY a.id",
+                ApplicationSummary.class);
+        return stream(query, status, organizationUnit);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> Stream<R> stream(TypedQuery<R> query, ApplicationStatus status, String organizationUnit) {
+        return query.setParameter("status", status)
+                .setParameter("organizationUnit", organizationUnit)
+                .setHint(QueryHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .setHint(QueryHints.HINT_CACHEABLE, false)
+                .unwrap(Query.class)
+                .stream();
+    }
+}
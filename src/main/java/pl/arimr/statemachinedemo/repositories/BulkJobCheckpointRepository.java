@@ -0,0 +1,9 @@
+package pl.arimr.statemachinedemo.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import pl.arimr.statemachinedemo.domain.BulkJobCheckpoint;
+
+@Repository
+public interface BulkJobCheckpointRepository extends JpaRepository<BulkJobCheckpoint, String> {
+}
@@ -0,0 +1,13 @@
+package pl.arimr.statemachinedemo.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import pl.arimr.statemachinedemo.domain.TransitionHistory;
+
+import java.util.List;
+
+@Repository
+public interface TransitionHistoryRepository extends JpaRepository<TransitionHistory, Long> {
+
+    List<TransitionHistory> findByMachineAndEntityIdOrderById(String machine, Long entityId);
+}
@@ -1,91 +1,542 @@
 package pl.arimr.statemachinedemo.service;
 
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.persist.StateMachinePersister;
-import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import pl.arimr.statemachinedemo.enums.FsmEngineType;
 import pl.arimr.statemachinedemo.enums.FsmEvent;
+import pl.arimr.statemachinedemo.enums.FsmStage;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmConflictException;
 import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.BatchStateMachinePersist;
+import pl.arimr.statemachinedemo.fsm.CompiledFsmEngine;
+import pl.arimr.statemachinedemo.fsm.FsmAuditLog;
+import pl.arimr.statemachinedemo.fsm.FsmEngine;
+import pl.arimr.statemachinedemo.fsm.FsmIdempotencyStore;
+import pl.arimr.statemachinedemo.fsm.FsmMetrics;
+import pl.arimr.statemachinedemo.fsm.FsmOutbox;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.FsmRetryPolicy;
+import pl.arimr.statemachinedemo.fsm.FsmState;
+import pl.arimr.statemachinedemo.fsm.FsmStateAccessor;
+import pl.arimr.statemachinedemo.fsm.SpringFsmEngine;
+import pl.arimr.statemachinedemo.fsm.TransitionIndex;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-
+/**
+ * Transactional here as well as on subclasses: a class-level annotation only covers methods declared in that class.
+ */
+@Transactional
 public abstract class AbstractStateMachineService<S, E extends FsmEvent, T> {
 
     protected static final Logger log = LoggerFactory.getLogger(AbstractStateMachineService.class);
 
     private final StateMachinePersister<S, E, T> persister;
 
+    private final BatchStateMachinePersist<S, E, T> persist;
+
     private final EntityManager entityManager;
 
     private final ApplicationContext applicationContext;
 
-    public AbstractStateMachineService(ApplicationContext applicationContext, StateMachinePersister<S, E, T> persister, EntityManager entityManager) {
+    private final FsmProperties fsmProperties;
+
+    private FsmEngine<S, E, T> engine;
+
+    private FsmMetrics metrics;
+
+    private FsmAuditLog auditLog;
+
+    private FsmOutbox outbox;
+
+    private TransitionIndex<S, E, T> transitionIndex;
+
+    /**
+     * Why the machine has no transition index, if it has none.
+     */
+    private String transitionIndexError;
+
+    public AbstractStateMachineService(ApplicationContext applicationContext, StateMachinePersister<S, E, T> persister,
+                                       BatchStateMachinePersist<S, E, T> persist, EntityManager entityManager,
+                                       FsmProperties fsmProperties) {
         this.applicationContext = applicationContext;
         this.persister = persister;
+        this.persist = persist;
         this.entityManager = entityManager;
+        this.fsmProperties = fsmProperties;
+    }
+
+    @PostConstruct
+    protected void init() {
+        FsmEngineType engineType = fsmProperties.getEngines().getOrDefault(getFsmFactoryName(), FsmEngineType.SPRING);
+        log.info("FSM {} uses {} engine", getFsmFactoryName(), engineType);
+        metrics = applicationContext.getBean(FsmMetrics.class);
+        auditLog = applicationContext.getBean(FsmAuditLog.class);
+        outbox = applicationContext.getBean(FsmOutbox.class);
+        indexTransitions();
+        if (engineType == FsmEngineType.COMPILED && transitionIndex == null) {
+            throw new IllegalStateException("fsm.engines." + getFsmFactoryName() + "=compiled, but FSM " + getFsmFactoryName()
+                    + " cannot be compiled: " + transitionIndexError);
+        }
+        engine = engineType == FsmEngineType.COMPILED ? createCompiledEngine() : createSpringEngine();
     }
 
     protected abstract String getFsmFactoryName();
 
-    protected abstract S getEntityState(T entity);
+    /**
+     * State held in the {@link FsmState} field of the entity.
+     */
+    protected S getEntityState(T entity) {
+        return FsmStateAccessor.<T, S>of(getEntityClass()).get(entity);
+    }
+
+    protected abstract Class<T> getEntityClass();
+
+    protected BatchStateMachinePersist<S, E, T> getPersist() {
+        return persist;
+    }
+
+    protected FsmMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Engine for {@link FsmEngineType#COMPILED}, run from the transition index; only called for flat machines.
+     */
+    protected FsmEngine<S, E, T> createCompiledEngine() {
+        return new CompiledFsmEngine<>(getFsmFactoryName(), getTransitionIndex(), persist, this::getEntityState, metrics);
+    }
 
-    private StateMachine<S, E> restore(T entity) {
-        StateMachine<S, E> stateMachine = create(entity);
+    /**
+     * Transition table of the machine, see {@link #getAvailableEvents(Object)}. Only flat machines have one.
+     *
+     * @throws UnsupportedOperationException if the machine could not be indexed
+     */
+    protected TransitionIndex<S, E, T> getTransitionIndex() {
+        if (transitionIndex == null) {
+            throw new UnsupportedOperationException("FSM " + getFsmFactoryName() + " has no transition index: " + transitionIndexError);
+        }
+        return transitionIndex;
+    }
+
+    /**
+     * Indexes the factory's model once; a machine that is not flat keeps working, only without the index.
+     */
+    @SuppressWarnings("unchecked")
+    private void indexTransitions() {
+        StateMachine<S, E> model = applicationContext.getBean(getFsmFactoryName(), StateMachineFactory.class).getStateMachine();
         try {
-            return persister.restore(stateMachine, entity);
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            throw new RuntimeException(e.getMessage(), e);
+            transitionIndex = TransitionIndex.of(model);
+        } catch (IllegalArgumentException e) {
+            transitionIndexError = e.getMessage();
+            log.info("FSM {} has no transition index: {}", getFsmFactoryName(), e.getMessage());
+        } finally {
+            model.stop();
+        }
+    }
+
+    /**
+     * Results of events sent with an idempotency key, see {@link #trySendEvent(Object, Object, String)}.
+     *
+     * @return null if the machine has none; keys are then ignored
+     */
+    protected FsmIdempotencyStore<S, E> getIdempotencyStore() {
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private FsmEngine<S, E, T> createSpringEngine() {
+        StateMachineFactory<S, E> stateMachineFactory = applicationContext.getBean(getFsmFactoryName(), StateMachineFactory.class);
+        return new SpringFsmEngine<>(getFsmFactoryName(), stateMachineFactory, persister, this::getEntityState, fsmProperties.getPool(), metrics);
+    }
+
+    /**
+     * Events the entity's state has a transition for, guards not evaluated. No machine is created and nothing
+     * is written; the returned set is shared and read-only.
+     */
+    public Set<E> getAvailableEvents(T entity) {
+        return getTransitionIndex().getAvailableEvents(getEntityState(entity));
+    }
+
+    /**
+     * Like {@link #getAvailableEvents(Object)}, optionally dropping events whose guard does not pass.
+     * Guards must not modify the entity.
+     */
+    public Set<E> getAvailableEvents(T entity, boolean evaluateGuards) {
+        TransitionIndex<S, E, T> index = getTransitionIndex();
+        S state = getEntityState(entity);
+        return evaluateGuards ? index.getAvailableEvents(state, entity) : index.getAvailableEvents(state);
+    }
+
+    /**
+     * Available events of many entities, e.g. for a listing page. Without guards the values are shared sets,
+     * so the only allocation is the map.
+     */
+    public Map<T, Set<E>> getAvailableEvents(Collection<T> entities) {
+        return getAvailableEvents(entities, false);
+    }
+
+    public Map<T, Set<E>> getAvailableEvents(Collection<T> entities, boolean evaluateGuards) {
+        Map<T, Set<E>> available = new LinkedHashMap<>(entities.size() * 4 / 3 + 1);
+        for (T entity : entities) {
+            available.put(entity, getAvailableEvents(entity, evaluateGuards));
+        }
+        return available;
+    }
+
+    public T sendEvent(T entity, E event) throws FsmTransitionException {
+        return unwrap(trySendEvent(entity, event));
+    }
+
+    /**
+     * Like {@link #sendEvent(Object, Object)}, for events that may be delivered more than once.
+     *
+     * @param idempotencyKey identifies the event, not the delivery; null to process the event unconditionally
+     * @see #trySendEvent(Object, Object, String)
+     */
+    public T sendEvent(T entity, E event, String idempotencyKey) throws FsmTransitionException {
+        return unwrap(trySendEvent(entity, event, idempotencyKey));
+    }
+
+    private T unwrap(TransitionResult<S, E, T> result) throws FsmTransitionException {
+        switch (result.getOutcome()) {
+            case ACCEPTED:
+                return result.getEntity();
+            case CONFLICT:
+                throw new FsmConflictException(result.getMessage());
+            default:
+                throw new FsmTransitionException(result.getMessage());
         }
     }
 
+    /**
+     * Like {@link #trySendEvent(Object, Object)}, but an event whose key was already processed is answered with the
+     * stored result of its first delivery (for this entity instance): no machine is built, no guard runs and nothing
+     * is written. Accepted and rejected results are stored, in the current transaction; conflicts and failures are
+     * not, so a later delivery tries again. If a concurrent delivery of the same key commits first, the result is
+     * a conflict and the transaction is marked rollback-only.
+     *
+     * @param idempotencyKey identifies the event, not the delivery; null to process the event unconditionally
+     * @throws IllegalArgumentException if the key is longer than {@link FsmIdempotencyStore#KEY_LENGTH}
+     */
+    public TransitionResult<S, E, T> trySendEvent(T entity, E event, String idempotencyKey) {
+        FsmIdempotencyStore<S, E> store = idempotencyKey != null ? getIdempotencyStore() : null;
+        if (store == null || !store.isEnabled()) {
+            return trySendEvent(entity, event);
+        }
+        TransitionResult<S, E, ?> processed = store.find(idempotencyKey);
+        if (processed != null) {
+            return processed.withEntity(entity);
+        }
+        TransitionResult<S, E, T> result = trySendEvent(entity, event);
+        if (!store.record(idempotencyKey, getId(entity), result)) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return TransitionResult.conflict(entity, event, result.getSource(), "Event " + idempotencyKey + " was processed concurrently");
+        }
+        return result;
+    }
 
-    private void persist(StateMachine<S, E> stateMachine, T entity) {
+    /**
+     * Like {@link #sendEvent(Object, Object)}, but a refused or conflicting transition is reported in the result
+     * instead of an exception. Meant for sweeps where refusals are common.
+     *
+     * @return result holding the merged entity if the transition was accepted
+     */
+    public TransitionResult<S, E, T> trySendEvent(T entity, E event) {
+        metrics.transitionStarted(getFsmFactoryName());
         try {
-            persister.persist(stateMachine, entity);
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            throw new RuntimeException(e.getMessage(), e);
+            flushBeforeTransition();
+            TransitionResult<S, E, T> result = engine.sendEvent(entity, event);
+            audit(result);
+            if (result.isAccepted()) {
+                publish(Collections.singletonList(result));
+            }
+            if (result.getOutcome() == TransitionOutcome.CONFLICT) {
+                revert(entity);
+            }
+            if (!result.isAccepted() || entityManager.contains(entity)) {
+                // a managed entity is flushed anyway; merge would only add a copy pass over it
+                return result;
+            }
+            return TransitionResult.accepted(merge(entity, result), event, result.getSource(), result.getTarget());
+        } finally {
+            metrics.transitionFinished(getFsmFactoryName());
+        }
+    }
+
+    private void audit(TransitionResult<S, E, T> result) {
+        if (auditLog.isEnabled()) {
+            auditLog.record(getFsmFactoryName(), getId(result.getEntity()), result);
+        }
+    }
+
+    /**
+     * Outbox rows join the current transaction: they commit or roll back with the status change.
+     */
+    private void publish(List<TransitionResult<S, E, T>> accepted) {
+        if (outbox.isEnabled() && !accepted.isEmpty()) {
+            outbox.append(getFsmFactoryName(), new ArrayList<>(accepted), this::getId);
+        }
+    }
+
+    private Object getId(T entity) {
+        return entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+    }
+
+    private T merge(T entity, TransitionResult<S, E, T> result) {
+        long start = metrics.start();
+        try {
+            return entityManager.merge(entity);
+        } finally {
+            metrics.record(FsmStage.MERGE, getFsmFactoryName(), result.getSource(), result.getTarget(), result.getEvent(), start);
         }
     }
 
+    /**
+     * Loads the entity and sends the event, for callers that only know the id (see {@link FsmEventDispatcher}).
+     */
+    public T sendEventById(Object id, E event) throws FsmTransitionException {
+        T entity = entityManager.find(getEntityClass(), id);
+        if (entity == null) {
+            throw new FsmTransitionException(getEntityClass().getSimpleName() + " #" + id + " not found");
+        }
+        return sendEvent(entity, event);
+    }
+
+    /**
+     * Like {@link #sendEvent(Object, Object, String)}; a duplicate is answered before the entity is loaded, unless
+     * the stored result was accepted and the entity is returned.
+     */
+    public T sendEventById(Object id, E event, String idempotencyKey) throws FsmTransitionException {
+        FsmIdempotencyStore<S, E> store = idempotencyKey != null ? getIdempotencyStore() : null;
+        TransitionResult<S, E, ?> processed = store != null && store.isEnabled() ? store.find(idempotencyKey) : null;
+        if (processed != null && !processed.isAccepted()) {
+            // thrown like the refusal of the first delivery
+            unwrap(processed.<T>withEntity(null));
+        }
+        T entity = entityManager.find(getEntityClass(), id);
+        if (entity == null) {
+            throw new FsmTransitionException(getEntityClass().getSimpleName() + " #" + id + " not found");
+        }
+        return processed != null ? entity : sendEvent(entity, event, idempotencyKey);
+    }
+
+    /**
+     * Like {@link #sendEvent(Object, Object)}, but a {@link FsmConflictException} is retried according to the policy:
+     * the entity is re-read and the event is fired again. Note that all attempts share the caller's transaction.
+     */
+    public T sendEvent(T entity, E event, FsmRetryPolicy retryPolicy) throws FsmTransitionException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return sendEvent(entity, event);
+            } catch (FsmConflictException e) {
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    throw e;
+                }
+                log.warn("{}, retrying {} (attempt {} of {})", e.getMessage(), event, attempt + 1, retryPolicy.getMaxAttempts());
+                pause(retryPolicy.backoffMillis(attempt));
+                entity = reload(entity);
+            }
+        }
+    }
+
+    /**
+     * Managed entities are already refreshed by {@link #revert(Object)}, detached ones are read again.
+     */
     @SuppressWarnings("unchecked")
-    private StateMachine<S, E> create(T entity) {
-        StateMachine<S, E> stateMachine = applicationContext.getBean(getFsmFactoryName(), StateMachine.class);
-        stateMachine.start();
-        stateMachine.getExtendedState().getVariables().put(FsmExtendedStateCons.ENTITY, entity);
-        return stateMachine;
+    private T reload(T entity) {
+        if (entityManager.contains(entity)) {
+            return entity;
+        }
+        Object id = getId(entity);
+        T reloaded = id != null ? (T) entityManager.find(entity.getClass(), id) : null;
+        return reloaded != null ? reloaded : entity;
     }
 
+    /**
+     * Status writes that bypass the persistence context (the conditional update, the single-statement update)
+     * do not auto-flush, and a pooled id defers the INSERT of a saved entity; pending inserts and updates are
+     * flushed before guards and actions touch the entity, so every write, and {@link #revert(Object)}, finds
+     * its row.
+     */
+    private void flushBeforeTransition() {
+        entityManager.flush();
+    }
 
-    private StateMachine<S, E> getFsm(T entity) {
-        if (getEntityState(entity) != null) {
-            return restore(entity);
-        } else {
-            return create(entity);
+    /**
+     * Drops in-memory changes made by guards and actions, so a lost transition is not flushed half-way
+     * and the entity shows its committed state.
+     */
+    private void revert(T entity) {
+        if (entityManager.contains(entity)) {
+            entityManager.refresh(entity);
         }
     }
 
-    public T sendEvent(T entity, E event) throws FsmTransitionException {
-        StateMachine<S, E> fsm = getFsm(entity);
-        Boolean success = fsm.sendEvent(event);
-        if (success) {
-            if (fsm.getExtendedState().getVariables().containsKey(FsmExtendedStateCons.ERROR)) {
-                throw new FsmTransitionException(fsm.getExtendedState().getVariables().get(FsmExtendedStateCons.ERROR).toString());
+    private void pause(long millis) throws FsmConflictException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FsmConflictException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Sends the same event to many entities. Guards and actions run per entity; accepted status changes are written
+     * with one statement per target state and chunk ({@code fsm.batch.chunk-size}). A rejected or failed entity
+     * does not affect the others; when a statement fails, the entities it would have moved are reported failed.
+     * A statement the database refused may still leave the transaction rollback-only.
+     *
+     * @return one result per entity, in iteration order of {@code entities}
+     */
+    public List<TransitionResult<S, E, T>> sendEvents(Collection<T> entities, E event) {
+        int chunkSize = fsmProperties.getBatch().getChunkSize();
+        List<TransitionResult<S, E, T>> results = new ArrayList<>(entities.size());
+        List<T> chunk = new ArrayList<>(Math.min(chunkSize, entities.size()));
+        for (T entity : entities) {
+            chunk.add(entity);
+            if (chunk.size() == chunkSize) {
+                sendChunk(chunk, event, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            sendChunk(chunk, event, results);
+        }
+        return results;
+    }
+
+    /**
+     * Sends each entity its own event, in list order. The entities are loaded together; consecutive entries with
+     * the same event go through {@link #sendEvents(Collection, Object)} as one group, and an entity listed again
+     * starts a new group, so that its events apply one after another.
+     *
+     * @param ids    entity ids
+     * @param events event per id
+     * @return one result per entry, in list order; an id without entity is rejected
+     */
+    public List<TransitionResult<S, E, T>> sendEventsById(List<? extends Serializable> ids, List<E> events) {
+        if (ids.size() != events.size()) {
+            throw new IllegalArgumentException("Expected one event per id, got " + ids.size() + " ids and " + events.size() + " events");
+        }
+        List<T> entities = entityManager.unwrap(Session.class).byMultipleIds(getEntityClass()).multiLoad(ids);
+        List<TransitionResult<S, E, T>> results = new ArrayList<>(ids.size());
+        List<T> group = new ArrayList<>();
+        Set<T> grouped = Collections.newSetFromMap(new IdentityHashMap<>());
+        E groupEvent = null;
+        for (int i = 0; i < ids.size(); i++) {
+            T entity = entities.get(i);
+            E event = events.get(i);
+            if (entity == null || event != groupEvent || grouped.contains(entity)) {
+                if (!group.isEmpty()) {
+                    results.addAll(sendEvents(group, groupEvent));
+                    group.clear();
+                    grouped.clear();
+                }
+                groupEvent = event;
+            }
+            if (entity == null) {
+                results.add(TransitionResult.rejected(null, event, null, getEntityClass().getSimpleName() + " #" + ids.get(i) + " not found"));
             } else {
-                persist(fsm, entity);
+                group.add(entity);
+                grouped.add(entity);
             }
-        } else {
-            if (fsm.getExtendedState().getVariables().containsKey(FsmExtendedStateCons.ERROR)) {
-                throw new FsmTransitionException(fsm.getExtendedState().getVariables().get(FsmExtendedStateCons.ERROR).toString());
+        }
+        if (!group.isEmpty()) {
+            results.addAll(sendEvents(group, groupEvent));
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sendChunk(List<T> chunk, E event, List<TransitionResult<S, E, T>> results) {
+        flushBeforeTransition();
+        TransitionResult<S, E, T>[] chunkResults = new TransitionResult[chunk.size()];
+        List<S> sources = new ArrayList<>(chunk.size());
+        Map<S, List<T>> byTarget = new LinkedHashMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            T entity = chunk.get(i);
+            S source = getEntityState(entity);
+            sources.add(source);
+            try {
+                TransitionResult<S, E, T> evaluated = engine.evaluate(entity, event);
+                if (evaluated.isAccepted()) {
+                    byTarget.computeIfAbsent(evaluated.getTarget(), target -> new ArrayList<>()).add(entity);
+                } else {
+                    chunkResults[i] = evaluated;
+                }
+            } catch (RuntimeException e) {
+                log.error(e.getMessage(), e);
+                metrics.outcome(getFsmFactoryName(), source, event, TransitionOutcome.FAILED);
+                chunkResults[i] = TransitionResult.failed(entity, event, source, e.getMessage());
+            }
+        }
+
+        Set<T> conflicts = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<T, String> failures = new IdentityHashMap<>();
+        for (Map.Entry<S, List<T>> target : byTarget.entrySet()) {
+            long start = metrics.start();
+            try {
+                conflicts.addAll(persist.writeAll(target.getKey(), target.getValue()));
+            } catch (Exception e) {
+                // the other targets are still written
+                log.error("FSM {} failed to move {} entities to {}", getFsmFactoryName(), target.getValue().size(), target.getKey(), e);
+                for (T entity : target.getValue()) {
+                    failures.put(entity, e.getMessage());
+                }
+            } finally {
+                metrics.record(FsmStage.PERSIST, getFsmFactoryName(), null, target.getKey(), event, start);
+            }
+        }
+
+        int first = results.size();
+        List<TransitionResult<S, E, T>> accepted = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (chunkResults[i] == null && failures.containsKey(chunk.get(i))) {
+                revert(chunk.get(i));
+                metrics.outcome(getFsmFactoryName(), sources.get(i), event, TransitionOutcome.FAILED);
+                results.add(TransitionResult.failed(chunk.get(i), event, sources.get(i), failures.get(chunk.get(i))));
+            } else if (chunkResults[i] == null && conflicts.contains(chunk.get(i))) {
+                revert(chunk.get(i));
+                metrics.outcome(getFsmFactoryName(), sources.get(i), event, TransitionOutcome.CONFLICT);
+                results.add(TransitionResult.conflict(chunk.get(i), event, sources.get(i), "State changed concurrently"));
+            } else if (chunkResults[i] == null) {
+                T merged = entityManager.merge(chunk.get(i));
+                metrics.outcome(getFsmFactoryName(), sources.get(i), event, TransitionOutcome.ACCEPTED);
+                TransitionResult<S, E, T> result = TransitionResult.accepted(merged, event, sources.get(i), getEntityState(merged));
+                accepted.add(result);
+                results.add(result);
             } else {
-                throw new FsmTransitionException();
+                results.add(chunkResults[i]);
             }
         }
-        return entityManager.merge(entity);
+        publish(accepted);
+        for (int i = first; i < results.size(); i++) {
+            audit(results.get(i));
+        }
     }
 
 }
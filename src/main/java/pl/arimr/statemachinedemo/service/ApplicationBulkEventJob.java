@@ -0,0 +1,351 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.ApplicationSummary;
+import pl.arimr.statemachinedemo.domain.BulkJobCheckpoint;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.repositories.BulkJobCheckpointRepository;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends one event to every application of a status and organization unit, e.g. APPROVE to all ACCEPTED
+ * applications of a unit.
+ * <p>
+ * Ids are read with keyset pages of {@code fsm.bulk.chunk-size}; every page is a chunk that loads its applications
+ * and runs {@link ApplicationFsmService#sendEvents} in its own transaction on a shared pool of
+ * {@code fsm.bulk.workers} threads. Refused items are collected in the {@link BulkJobProgress}; a chunk that fails
+ * as a whole is rolled back and all its items are reported as {@link TransitionOutcome#FAILED}.
+ * <p>
+ * After each chunk the job stores, in BULK_JOB_CHECKPOINT, the highest id up to which all chunks have committed.
+ * A job started again under the same name and with the same filter and event continues after it; a job that
+ * completes without failed chunks removes its checkpoint. A job that stops early, on a read error or at shutdown,
+ * still waits for the chunks it handed to the workers before it reports its result.
+ */
+@Slf4j
+@Service
+public class ApplicationBulkEventJob {
+
+    private final ApplicationFsmService applicationFsmService;
+
+    private final ApplicationRespository applicationRespository;
+
+    private final BulkJobCheckpointRepository checkpointRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final FsmProperties.Bulk properties;
+
+    private final ThreadPoolExecutor workers;
+
+    private final ExecutorService readers;
+
+    private final ConcurrentMap<String, BulkJobProgress> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ApplicationBulkEventJob(final ApplicationFsmService applicationFsmService,
+                                   final ApplicationRespository applicationRespository,
+                                   final BulkJobCheckpointRepository checkpointRepository,
+                                   final PlatformTransactionManager transactionManager,
+                                   final FsmProperties fsmProperties) {
+        this.properties = fsmProperties.getBulk();
+        if (properties.getWorkers() < 1 || properties.getChunkSize() < 1) {
+            throw new IllegalArgumentException("FSM bulk workers and chunk size must be positive");
+        }
+        this.applicationFsmService = applicationFsmService;
+        this.applicationRespository = applicationRespository;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger threadNumber = new AtomicInteger();
+        // jobs bound their own in-flight chunks, so the queue is never longer than twice the pool per job
+        this.workers = new ThreadPoolExecutor(properties.getWorkers(), properties.getWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "fsm-bulk-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        AtomicInteger readerNumber = new AtomicInteger();
+        this.readers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fsm-bulk-reader-" + readerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the readers of started jobs; chunks still queued are abandoned and reported as failed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (Runnable chunk : workers.shutdownNow()) {
+            ((Chunk) chunk).abandon();
+        }
+        readers.shutdownNow();
+    }
+
+    /**
+     * Runs the job on the calling thread.
+     *
+     * @throws IllegalStateException if a job of that name is running, or left a checkpoint for another filter or event
+     */
+    public BulkJobProgress run(String name, ApplicationStatus status, String organizationUnit, ApplicationEvent event) {
+        BulkJobProgress progress = begin(name, status, organizationUnit, event);
+        execute(progress, status, organizationUnit, event);
+        return progress;
+    }
+
+    /**
+     * Like {@link #run}, but returns at once; poll the returned progress or {@link #getProgress(String)}.
+     */
+    public BulkJobProgress start(String name, ApplicationStatus status, String organizationUnit, ApplicationEvent event) {
+        BulkJobProgress progress = begin(name, status, organizationUnit, event);
+        try {
+            readers.execute(() -> execute(progress, status, organizationUnit, event));
+        } catch (RejectedExecutionException e) {
+            progress.finish(BulkJobProgress.Status.FAILED);
+            throw e;
+        }
+        return progress;
+    }
+
+    /**
+     * @return progress of the running or last finished job of that name since startup, or {@code null}
+     */
+    public BulkJobProgress getProgress(String name) {
+        return jobs.get(name);
+    }
+
+    private BulkJobProgress begin(String name, ApplicationStatus status, String organizationUnit, ApplicationEvent event) {
+        BulkJobCheckpoint checkpoint = checkpointRepository.findById(name).orElse(null);
+        if (checkpoint != null && (checkpoint.getStatus() != status || checkpoint.getEvent() != event
+                || !Objects.equals(checkpoint.getOrganizationUnit(), organizationUnit))) {
+            throw new IllegalStateException("Bulk job " + name + " has a checkpoint for " + checkpoint.getEvent() + " of "
+                    + checkpoint.getStatus() + " applications of " + checkpoint.getOrganizationUnit() + ", use another name");
+        }
+        long startId = checkpoint != null ? checkpoint.getLastId() : 0L;
+        return jobs.compute(name, (key, previous) -> {
+            if (previous != null && previous.isRunning()) {
+                throw new IllegalStateException("Bulk job " + name + " is already running");
+            }
+            return new BulkJobProgress(name, startId, properties.getMaxFailures());
+        });
+    }
+
+    private void execute(BulkJobProgress progress, ApplicationStatus status, String organizationUnit, ApplicationEvent event) {
+        if (progress.getStartId() > 0) {
+            log.info("Bulk job {} continues after #{}", progress.getName(), progress.getStartId());
+        }
+        int permits = properties.getWorkers() * 2;
+        Semaphore inFlight = new Semaphore(permits);
+        Checkpoints checkpoints = new Checkpoints(progress, status, organizationUnit, event);
+        long afterId = progress.getStartId();
+        int sequence = 0;
+        try {
+            try {
+                List<ApplicationSummary> page;
+                while (!(page = applicationRespository.findSummaryPage(status, organizationUnit, afterId,
+                        PageRequest.of(0, properties.getChunkSize()))).isEmpty()) {
+                    List<Long> ids = new ArrayList<>(page.size());
+                    for (ApplicationSummary summary : page) {
+                        ids.add(summary.getId());
+                    }
+                    afterId = ids.get(ids.size() - 1);
+                    progress.getRead().addAndGet(ids.size());
+
+                    inFlight.acquire();
+                    try {
+                        workers.execute(new Chunk(progress, ids, event, sequence++, checkpoints, inFlight));
+                    } catch (RejectedExecutionException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                }
+            } finally {
+                // chunks already handed to the workers still commit and move the checkpoint
+                inFlight.acquireUninterruptibly(permits);
+            }
+            progress.finish(checkpoints.finish() ? BulkJobProgress.Status.COMPLETED : BulkJobProgress.Status.FAILED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            progress.finish(BulkJobProgress.Status.FAILED);
+        } catch (RuntimeException e) {
+            log.error("Bulk job {} failed: {}", progress.getName(), e.getMessage(), e);
+            progress.finish(BulkJobProgress.Status.FAILED);
+        }
+        log.info("Bulk job {} {}: {} read, {} accepted, {} refused, checkpoint #{}", progress.getName(), progress.getStatus(),
+                progress.getRead(), progress.getAccepted(), progress.getRefused(), progress.getCheckpoint());
+    }
+
+    /**
+     * @return {@code false} if the chunk was rolled back
+     */
+    private boolean sendChunk(BulkJobProgress progress, List<Long> ids, ApplicationEvent event) {
+        List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> results;
+        try {
+            results = transactionTemplate.execute(transaction ->
+                    applicationFsmService.sendEvents(applicationRespository.findAllById(ids), event));
+        } catch (RuntimeException e) {
+            log.error("Bulk job {} chunk up to #{} rolled back: {}", progress.getName(), ids.get(ids.size() - 1), e.getMessage(), e);
+            progress.getFailedChunks().incrementAndGet();
+            for (Long id : ids) {
+                progress.refused(id, TransitionOutcome.FAILED, e.getMessage());
+            }
+            return false;
+        }
+        for (TransitionResult<ApplicationStatus, ApplicationEvent, Application> result : results) {
+            if (result.isAccepted()) {
+                progress.getAccepted().incrementAndGet();
+            } else {
+                progress.refused(result.getEntity().getId(), result.getOutcome(), result.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private final class Chunk implements Runnable {
+
+        private final BulkJobProgress progress;
+
+        private final List<Long> ids;
+
+        private final ApplicationEvent event;
+
+        private final int sequence;
+
+        private final Checkpoints checkpoints;
+
+        private final Semaphore inFlight;
+
+        private Chunk(BulkJobProgress progress, List<Long> ids, ApplicationEvent event, int sequence,
+                      Checkpoints checkpoints, Semaphore inFlight) {
+            this.progress = progress;
+            this.ids = ids;
+            this.event = event;
+            this.sequence = sequence;
+            this.checkpoints = checkpoints;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void run() {
+            try {
+                checkpoints.completed(sequence, lastId(), sendChunk(progress, ids, event));
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        /**
+         * Never run: counted as rolled back, so the checkpoint stops before it.
+         */
+        void abandon() {
+            try {
+                progress.getFailedChunks().incrementAndGet();
+                checkpoints.completed(sequence, lastId(), false);
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        private long lastId() {
+            return ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * Chunks finish out of order; the checkpoint only moves over an unbroken run of committed chunks and
+     * stops for good at the first rolled back one, so a restart retries it.
+     */
+    private final class Checkpoints {
+
+        private final BulkJobProgress progress;
+
+        private final ApplicationStatus status;
+
+        private final String organizationUnit;
+
+        private final ApplicationEvent event;
+
+        private final Map<Integer, Long> completed = new HashMap<>();
+
+        private int next;
+
+        private boolean broken;
+
+        private Checkpoints(BulkJobProgress progress, ApplicationStatus status, String organizationUnit, ApplicationEvent event) {
+            this.progress = progress;
+            this.status = status;
+            this.organizationUnit = organizationUnit;
+            this.event = event;
+        }
+
+        synchronized void completed(int chunk, long lastId, boolean committed) {
+            completed.put(chunk, committed ? lastId : null);
+            Long checkpoint = null;
+            while (!broken && completed.containsKey(next)) {
+                Long chunkLastId = completed.remove(next);
+                if (chunkLastId == null) {
+                    broken = true;
+                } else {
+                    checkpoint = chunkLastId;
+                    next++;
+                }
+            }
+            if (checkpoint != null) {
+                save(checkpoint);
+            }
+        }
+
+        /**
+         * @return {@code true} if every chunk committed; the checkpoint is then removed
+         */
+        synchronized boolean finish() {
+            if (broken) {
+                return false;
+            }
+            String name = progress.getName();
+            transactionTemplate.execute(transaction -> {
+                if (checkpointRepository.existsById(name)) {
+                    checkpointRepository.deleteById(name);
+                }
+                return null;
+            });
+            return true;
+        }
+
+        private void save(long checkpoint) {
+            transactionTemplate.execute(transaction -> checkpointRepository.save(
+                    new BulkJobCheckpoint(progress.getName(), status, organizationUnit, event, checkpoint)));
+            progress.checkpoint(checkpoint);
+        }
+    }
+}
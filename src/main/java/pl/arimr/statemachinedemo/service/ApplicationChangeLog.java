@@ -0,0 +1,168 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records inserted applications and status changes in APPLICATION_CHANGE, for {@link ApplicationStatusSnapshot}
+ * to catch up on. The outbox is not involved, so its publishers see transitions only.
+ * <p>
+ * Changes are collected per Hibernate session and written with one JDBC batch just before the transaction commits,
+ * after the commit-time flush: chunked ingest keeps its insert batching, and a change id is taken moments before its
+ * transaction commits. Rows older than {@code fsm.snapshot.retention} are purged.
+ */
+@Slf4j
+@Service
+public class ApplicationChangeLog {
+
+    private static final String INSERT = "INSERT INTO APPLICATION_CHANGE (APPLICATION_ID, CREATED_DATE) VALUES (?, ?)";
+
+    private static final String PURGE = "DELETE FROM APPLICATION_CHANGE WHERE CREATED_DATE < ?";
+
+    private final EntityManager entityManager;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final boolean enabled;
+
+    private final Duration retention;
+
+    /**
+     * Changes of the open transactions, by session.
+     */
+    private final Map<SessionImplementor, Changes> pending = new ConcurrentHashMap<>();
+
+    public ApplicationChangeLog(final EntityManager entityManager, final EntityManagerFactory entityManagerFactory,
+                                final JdbcTemplate jdbcTemplate, final FsmProperties fsmProperties) {
+        this.entityManager = entityManager;
+        this.entityManagerFactory = entityManagerFactory;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = fsmProperties.getSnapshot().isEnabled();
+        this.retention = fsmProperties.getSnapshot().getRetention();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(EventListenerRegistry.class)
+                .appendListeners(EventType.POST_INSERT, new InsertListener());
+    }
+
+    /**
+     * Records a status change of the application; written when the current transaction commits.
+     */
+    public void changed(Object applicationId) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            jdbcTemplate.update(INSERT, applicationId, Timestamp.valueOf(LocalDateTime.now()));
+            return;
+        }
+        record(entityManager.unwrap(SessionImplementor.class), applicationId);
+    }
+
+    /**
+     * Deletes changes recorded longer than the retention ago.
+     */
+    @Scheduled(fixedDelayString = "#{@fsmProperties.snapshot.purgeInterval.toMillis()}")
+    public int purge() {
+        if (!enabled) {
+            return 0;
+        }
+        int purged = jdbcTemplate.update(PURGE, Timestamp.valueOf(LocalDateTime.now().minus(retention)));
+        if (purged > 0) {
+            log.debug("Purged {} application changes", purged);
+        }
+        return purged;
+    }
+
+    private void record(SessionImplementor session, Object applicationId) {
+        pending.computeIfAbsent(session, key -> {
+            Changes changes = new Changes();
+            ActionQueue actions = key.getActionQueue();
+            actions.registerProcess((BeforeTransactionCompletionProcess) changes);
+            actions.registerProcess((AfterTransactionCompletionProcess) changes);
+            return changes;
+        }).applicationIds.add(applicationId);
+    }
+
+    /**
+     * Changes of one transaction, written by Hibernate's before-completion process on the session's connection.
+     */
+    private final class Changes implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+        private final Set<Object> applicationIds = new LinkedHashSet<>();
+
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            pending.remove(session, this);
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            session.doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                    for (Object applicationId : applicationIds) {
+                        statement.setObject(1, applicationId);
+                        statement.setTimestamp(2, now);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            });
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+            // rolled back: the before-completion process did not run
+            pending.remove(session, this);
+        }
+    }
+
+    private class InsertListener implements PostInsertEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getEntity() instanceof Application) {
+                record(event.getSession(), event.getId());
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pl.arimr.statemachinedemo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+
+@Service
+public class ApplicationFsmDispatcher extends FsmEventDispatcher<ApplicationStatus, ApplicationEvent, Application> {
+
+    @Autowired
+    public ApplicationFsmDispatcher(final ApplicationFsmService applicationFsmService,
+                                    final FsmProperties fsmProperties) {
+        super("applicationFsm", applicationFsmService, fsmProperties.getDispatcher());
+    }
+}
@@ -7,6 +7,9 @@ import org.springframework.stereotype.Service;
 import pl.arimr.statemachinedemo.domain.Application;
 import pl.arimr.statemachinedemo.enums.ApplicationEvent;
 import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.BatchStateMachinePersist;
+import pl.arimr.statemachinedemo.fsm.FsmIdempotencyStore;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
 
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
@@ -15,20 +18,31 @@ import javax.transaction.Transactional;
 @Service
 public class ApplicationFsmService extends AbstractStateMachineService<ApplicationStatus, ApplicationEvent, Application> {
 
+    private final FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> idempotencyStore;
+
     @Autowired
     public ApplicationFsmService(final ApplicationContext applicationContext,
                                  final StateMachinePersister<ApplicationStatus, ApplicationEvent, Application> persister,
-                                 final EntityManager entityManager) {
-        super(applicationContext, persister, entityManager);
+                                 final BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application> persist,
+                                 final FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> idempotencyStore,
+                                 final EntityManager entityManager,
+                                 final FsmProperties fsmProperties) {
+        super(applicationContext, persister, persist, entityManager, fsmProperties);
+        this.idempotencyStore = idempotencyStore;
     }
 
     @Override
     protected String getFsmFactoryName() {
-        return "applicationFsm";
+        return "applicationFsmFactory";
+    }
+
+    @Override
+    protected Class<Application> getEntityClass() {
+        return Application.class;
     }
 
     @Override
-    protected ApplicationStatus getEntityState(final Application entity) {
-        return entity.getStatus();
+    protected FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> getIdempotencyStore() {
+        return idempotencyStore;
     }
 }
@@ -0,0 +1,114 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.EntityFieldAccessor;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.FsmStateAccessor;
+import pl.arimr.statemachinedemo.fsm.FsmTimeouts;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts new applications in bulk. Applications get the initial state of the workflow directly, no state machine
+ * is involved. Ids come from the pooled ENTITY_SEQ and inserts are sent as JDBC batches
+ * ({@code spring.jpa.properties.hibernate.jdbc.batch_size}); every {@code fsm.ingest.chunk-size} applications are
+ * committed in their own transaction and the persistence context is cleared, so memory use does not grow with
+ * the input.
+ */
+@Slf4j
+@Service
+public class ApplicationIngestService {
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationFsmService applicationFsmService;
+
+    private final FsmTimeouts<ApplicationStatus, ApplicationEvent> timeouts;
+
+    private final FsmStateAccessor<Application, ApplicationStatus> statusAccessor = FsmStateAccessor.of(Application.class);
+
+    private final EntityFieldAccessor<Application, LocalDateTime> deadlineAccessor = EntityFieldAccessor.of(Application.class, "deadline");
+
+    private final int chunkSize;
+
+    @Autowired
+    public ApplicationIngestService(final EntityManager entityManager,
+                                    final PlatformTransactionManager transactionManager,
+                                    final ApplicationFsmService applicationFsmService,
+                                    final FsmTimeouts<ApplicationStatus, ApplicationEvent> applicationFsmTimeouts,
+                                    final FsmProperties fsmProperties) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.applicationFsmService = applicationFsmService;
+        this.timeouts = applicationFsmTimeouts;
+        this.chunkSize = fsmProperties.getIngest().getChunkSize();
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("FSM ingest chunk size must be positive");
+        }
+    }
+
+    /**
+     * Inserts the applications; they are detached afterwards, with their ids set. Chunks already committed stay
+     * committed if a later one fails.
+     *
+     * @return number of inserted applications
+     * @throws IllegalArgumentException for an application that already has an id
+     */
+    public long ingest(Iterable<Application> applications) {
+        long inserted = 0;
+        List<Application> chunk = new ArrayList<>(chunkSize);
+        for (Application application : applications) {
+            chunk.add(application);
+            if (chunk.size() == chunkSize) {
+                inserted += insert(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            inserted += insert(chunk);
+        }
+        log.debug("Ingested {} applications", inserted);
+        return inserted;
+    }
+
+    private int insert(List<Application> chunk) {
+        ApplicationStatus initialState = applicationFsmService.getTransitionIndex().getInitialState();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime deadline = timeouts.deadline(initialState);
+        return transactionTemplate.execute(transaction -> {
+            for (Application application : chunk) {
+                if (application.getId() != null) {
+                    throw new IllegalArgumentException("Application #" + application.getId() + " is not new");
+                }
+                statusAccessor.set(application, initialState);
+                deadlineAccessor.set(application, deadline);
+                if (application.getCreatedDate() == null) {
+                    application.setCreatedDate(now);
+                }
+                entityManager.persist(application);
+            }
+            entityManager.flush();
+            entityManager.clear();
+            if (deadline != null) {
+                for (Application application : chunk) {
+                    timeouts.scheduleAfterCommit(application.getId(), deadline);
+                }
+            }
+            return chunk.size();
+        });
+    }
+}
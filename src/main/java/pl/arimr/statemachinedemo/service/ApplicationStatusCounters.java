@@ -0,0 +1,336 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Number of applications per organization unit and status, kept in memory so dashboards do not run
+ * a {@code GROUP BY} over the whole table.
+ * <p>
+ * Counters are loaded with one scan at startup and moved by status changes once their transaction commits
+ * (see the {@code applicationFsmPersist} bean), applications inserted through JPA by a Hibernate post-insert
+ * listener. Each counter is a {@link LongAdder}, so concurrent transitions of one organization unit do not
+ * contend on a single cell. Rows inserted with plain SQL can be reported through
+ * {@link #added(String, ApplicationStatus, long)}; those and deleted rows are otherwise picked up by the periodic
+ * reconciliation ({@code fsm.counters.reconcile-interval}). Applications without an organization unit are counted under
+ * {@link #NO_ORGANIZATION_UNIT}.
+ * <p>
+ * A committing transaction holds a shared lock from before its commit until its counter updates are applied, and
+ * reconciliation holds it exclusively, so a scan never sees a change whose update is still to come.
+ */
+@Slf4j
+@Service
+public class ApplicationStatusCounters {
+
+    public static final String NO_ORGANIZATION_UNIT = "";
+
+    private static final ApplicationStatus[] STATUSES = ApplicationStatus.values();
+
+    private final ApplicationRespository applicationRespository;
+
+    private final ApplicationStatusSnapshot statusSnapshot;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final boolean enabled;
+
+    private final ConcurrentMap<String, LongAdder[]> counters = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock reconciling = new ReentrantReadWriteLock();
+
+    @Autowired
+    public ApplicationStatusCounters(final ApplicationRespository applicationRespository,
+                                     final ApplicationStatusSnapshot statusSnapshot,
+                                     final EntityManagerFactory entityManagerFactory,
+                                     final FsmProperties fsmProperties) {
+        this.applicationRespository = applicationRespository;
+        this.statusSnapshot = statusSnapshot;
+        this.entityManagerFactory = entityManagerFactory;
+        this.enabled = fsmProperties.getCounters().isEnabled();
+    }
+
+    /**
+     * Counts come from the status snapshot when there is one, so a restart does not scan the table.
+     */
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(EventListenerRegistry.class)
+                .appendListeners(EventType.POST_INSERT, new InsertListener());
+        if (statusSnapshot.isCaughtUp()) {
+            Map<String, long[]> counted = new HashMap<>();
+            statusSnapshot.getCounts().forEach((organizationUnit, counts) -> counted.put(key(organizationUnit), counts));
+            adjust(counted, new HashMap<>());
+        } else {
+            reconcile();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a status change of one application; applied after the current transaction commits.
+     */
+    public void moved(String organizationUnit, ApplicationStatus from, ApplicationStatus to) {
+        if (!enabled || from == to) {
+            return;
+        }
+        LongAdder[] unit = unit(organizationUnit);
+        afterCommit(() -> {
+            if (from != null) {
+                unit[from.ordinal()].decrement();
+            }
+            unit[to.ordinal()].increment();
+        });
+    }
+
+    /**
+     * Records new applications of one unit; applied after the current transaction commits.
+     */
+    public void added(String organizationUnit, ApplicationStatus status, long count) {
+        if (!enabled || count == 0) {
+            return;
+        }
+        LongAdder[] unit = unit(organizationUnit);
+        afterCommit(() -> unit[status.ordinal()].add(count));
+    }
+
+    public long getCount(String organizationUnit, ApplicationStatus status) {
+        LongAdder[] unit = counters.get(key(organizationUnit));
+        return unit != null ? unit[status.ordinal()].sum() : 0;
+    }
+
+    public Map<ApplicationStatus, Long> getCounts(String organizationUnit) {
+        Map<ApplicationStatus, Long> counts = new EnumMap<>(ApplicationStatus.class);
+        LongAdder[] unit = counters.get(key(organizationUnit));
+        for (ApplicationStatus status : STATUSES) {
+            counts.put(status, unit != null ? unit[status.ordinal()].sum() : 0L);
+        }
+        return counts;
+    }
+
+    /**
+     * @return counts of every organization unit, sorted by unit
+     */
+    public Map<String, Map<ApplicationStatus, Long>> getCounts() {
+        Map<String, Map<ApplicationStatus, Long>> counts = new TreeMap<>();
+        for (String organizationUnit : counters.keySet()) {
+            counts.put(organizationUnit, getCounts(organizationUnit));
+        }
+        return counts;
+    }
+
+    public Map<ApplicationStatus, Long> getTotals() {
+        long[] totals = new long[STATUSES.length];
+        for (LongAdder[] unit : counters.values()) {
+            for (int i = 0; i < STATUSES.length; i++) {
+                totals[i] += unit[i].sum();
+            }
+        }
+        Map<ApplicationStatus, Long> counts = new EnumMap<>(ApplicationStatus.class);
+        for (ApplicationStatus status : STATUSES) {
+            counts.put(status, totals[status.ordinal()]);
+        }
+        return counts;
+    }
+
+    /**
+     * Brings the counters in line with the table. Counters are adjusted by the difference between the scan and
+     * their values when the scan started rather than replaced, so readers never see a unit disappear or drop to
+     * zero. Commits wait for the scan to finish.
+     */
+    @Scheduled(fixedDelayString = "#{@fsmProperties.counters.reconcileInterval.toMillis()}",
+            initialDelayString = "#{@fsmProperties.counters.reconcileInterval.toMillis()}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        reconciling.writeLock().lock();
+        try {
+            Map<String, long[]> before = current();
+            Map<String, long[]> scanned = new HashMap<>();
+            for (Object[] row : applicationRespository.countByOrganizationUnitAndStatus()) {
+                long[] unit = scanned.computeIfAbsent(key((String) row[0]), key -> new long[STATUSES.length]);
+                unit[((ApplicationStatus) row[1]).ordinal()] = (Long) row[2];
+            }
+            adjust(scanned, before);
+        } finally {
+            reconciling.writeLock().unlock();
+        }
+    }
+
+    private Map<String, long[]> current() {
+        Map<String, long[]> current = new HashMap<>();
+        counters.forEach((organizationUnit, unit) -> {
+            long[] counts = new long[STATUSES.length];
+            for (int i = 0; i < STATUSES.length; i++) {
+                counts[i] = unit[i].sum();
+            }
+            current.put(organizationUnit, counts);
+        });
+        return current;
+    }
+
+    /**
+     * Adds the difference between the counted values and {@code before} to the counters; units missing from
+     * {@code scanned} are counted as empty, units missing from {@code before} started empty.
+     */
+    private void adjust(Map<String, long[]> scanned, Map<String, long[]> before) {
+        long drift = 0;
+        for (String organizationUnit : before.keySet()) {
+            scanned.computeIfAbsent(organizationUnit, key -> new long[STATUSES.length]);
+        }
+        for (Map.Entry<String, long[]> entry : scanned.entrySet()) {
+            long[] previous = before.get(entry.getKey());
+            LongAdder[] unit = unit(entry.getKey());
+            for (int i = 0; i < STATUSES.length; i++) {
+                long difference = entry.getValue()[i] - (previous != null ? previous[i] : 0);
+                if (difference != 0) {
+                    unit[i].add(difference);
+                    drift += Math.abs(difference);
+                }
+            }
+        }
+        log.debug("Application status counters reconciled, {} corrected", drift);
+    }
+
+    private LongAdder[] unit(String organizationUnit) {
+        return counters.computeIfAbsent(key(organizationUnit), key -> {
+            LongAdder[] unit = new LongAdder[STATUSES.length];
+            for (int i = 0; i < unit.length; i++) {
+                unit[i] = new LongAdder();
+            }
+            return unit;
+        });
+    }
+
+    private void afterCommit(Runnable update) {
+        Pending pending = new Pending(update);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            pending.complete(true);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(pending);
+    }
+
+    private static String key(String organizationUnit) {
+        return organizationUnit != null ? organizationUnit : NO_ORGANIZATION_UNIT;
+    }
+
+    /**
+     * Counter update of a committing transaction, run through a Spring synchronization or, for inserts flushed
+     * during the commit itself, through Hibernate's completion processes.
+     */
+    private final class Pending extends TransactionSynchronizationAdapter
+            implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+        private final Runnable update;
+
+        private boolean locked;
+
+        private Pending(Runnable update) {
+            this.update = update;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            lock();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            complete(status == STATUS_COMMITTED);
+        }
+
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            lock();
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+            complete(success);
+        }
+
+        private void lock() {
+            if (!locked) {
+                reconciling.readLock().lock();
+                locked = true;
+            }
+        }
+
+        private void complete(boolean committed) {
+            if (!committed && !locked) {
+                return;
+            }
+            // registered too late to lock before the commit; the update is still applied
+            lock();
+            try {
+                if (committed) {
+                    update.run();
+                }
+            } finally {
+                locked = false;
+                reconciling.readLock().unlock();
+            }
+        }
+    }
+
+    private class InsertListener implements PostInsertEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (enabled && event.getEntity() instanceof Application) {
+                Application application = (Application) event.getEntity();
+                LongAdder counter = unit(application.getOrganizationUnit())[application.getStatus().ordinal()];
+                // the insert may be flushed by the commit, after Spring's before-commit callbacks ran
+                Pending pending = new Pending(counter::increment);
+                ActionQueue actions = event.getSession().getActionQueue();
+                actions.registerProcess((BeforeTransactionCompletionProcess) pending);
+                actions.registerProcess((AfterTransactionCompletionProcess) pending);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.FsmStatusSnapshot;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Status and organization unit of every application, served from a memory-mapped {@link FsmStatusSnapshot}
+ * so that a restarted node answers status lookups, and seeds {@link ApplicationStatusCounters}, without
+ * scanning the APPLICATION table.
+ * <p>
+ * Inserts and status changes are recorded in APPLICATION_CHANGE by {@link ApplicationChangeLog}; its identity ids
+ * order both kinds of change. Application ids cannot serve as a mark: they come from a pooled sequence, so a node may
+ * commit ids lower than ones another node committed long before.
+ * <p>
+ * At startup the snapshot file is mapped and only the applications named by changes after its mark are read.
+ * Replayed rows are read from APPLICATION, so reading a change twice is harmless. The same catch-up then runs every
+ * {@code fsm.snapshot.catch-up-interval}, which also picks up changes of other nodes, and changes are kept in a sorted
+ * map over the mapped file until the next {@link #write()} merges both into a new file.
+ * <p>
+ * A change id is taken just before its transaction commits, so a later id can be visible before an earlier one.
+ * An id skipped by a catch-up is a gap: it is read again by every catch-up until its change shows up, and the mark
+ * written to the file stays below the lowest gap, so a restarted node reads it again too. Only a gap open for
+ * {@code fsm.snapshot.gap-timeout} is taken for a rolled-back transaction and dropped. A file older than the retained
+ * changes ({@code fsm.snapshot.retention} less the gap timeout) is rebuilt. Without a file the first catch-up is a
+ * full scan, the ids missing among the changes of the last gap timeout become gaps, and a file is written
+ * immediately. Organization units changed outside the state machine, rows inserted with plain SQL and deleted rows
+ * are not tracked.
+ */
+@Slf4j
+@Service
+public class ApplicationStatusSnapshot {
+
+    private static final ApplicationStatus[] STATUSES = ApplicationStatus.values();
+
+    private static final String MARK = "SELECT COALESCE(MAX(ID), 0) FROM APPLICATION_CHANGE";
+
+    private static final String RECENT = "SELECT ID FROM APPLICATION_CHANGE WHERE CREATED_DATE >= ? ORDER BY ID";
+
+    private static final String ALL = "SELECT ID, STATUS, ORGANIZATION_UNIT FROM APPLICATION";
+
+    private static final String CHANGES = "SELECT C.ID, A.ID, A.STATUS, A.ORGANIZATION_UNIT FROM APPLICATION_CHANGE C "
+            + "LEFT JOIN APPLICATION A ON A.ID = C.APPLICATION_ID WHERE ";
+
+    private static final String CHANGED = CHANGES + "C.ID > ? ORDER BY C.ID";
+
+    private static final String GAPS = CHANGES + "C.ID IN (:ids)";
+
+    private static final int GAP_BATCH = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private final boolean enabled;
+
+    private final Path file;
+
+    private final Duration gapTimeout;
+
+    private final Duration fileTimeout;
+
+    private volatile View view = new View(null);
+
+    private volatile boolean caughtUp;
+
+    /**
+     * True once every application was read, from the file or by a full scan.
+     */
+    private boolean loaded;
+
+    /**
+     * Change id up to which every change was read or given up.
+     */
+    private long changeMark;
+
+    /**
+     * Highest change id read.
+     */
+    private long seen;
+
+    /**
+     * Change ids below {@link #seen} not read yet, with the nanoTime they were noticed.
+     */
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    public ApplicationStatusSnapshot(final JdbcTemplate jdbcTemplate, final FsmProperties fsmProperties) {
+        FsmProperties.Snapshot properties = fsmProperties.getSnapshot();
+        if (properties.getRetention().compareTo(properties.getGapTimeout()) <= 0) {
+            throw new IllegalArgumentException("fsm.snapshot.retention must be longer than fsm.snapshot.gap-timeout");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.enabled = properties.isEnabled();
+        this.file = Paths.get(properties.getFile());
+        this.gapTimeout = properties.getGapTimeout();
+        this.fileTimeout = properties.getRetention().minus(properties.getGapTimeout());
+    }
+
+    @PostConstruct
+    public synchronized void init() {
+        if (!enabled) {
+            return;
+        }
+        FsmStatusSnapshot file = load();
+        if (file != null) {
+            view = new View(file);
+            changeMark = file.getChangeMark();
+            seen = changeMark;
+            loaded = true;
+        }
+        int replayed = catchUp();
+        caughtUp = true;
+        log.info("Application status snapshot {}: {} rows, {} changes replayed", file != null ? "loaded" : "rebuilt",
+                file != null ? file.size() : 0, replayed);
+        if (file == null) {
+            write();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true once the changes after the snapshot's mark were read
+     */
+    public boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    /**
+     * @return status of the application, null if unknown
+     */
+    public ApplicationStatus getStatus(long id) {
+        Row row = view.row(id);
+        return row != null ? row.status : null;
+    }
+
+    /**
+     * Keyset page of the applications in a status, read from the by-state index of the file merged with the
+     * changes since it was written.
+     *
+     * @return up to {@code limit} ascending ids greater than {@code afterId}
+     */
+    public List<Long> getIds(ApplicationStatus status, long afterId, int limit) {
+        List<Long> ids = new ArrayList<>(Math.min(limit, 1024));
+        View current = view;
+        FsmStatusSnapshot snapshot = current.snapshot;
+        int state = status.ordinal();
+        int count = snapshot != null ? snapshot.countOf(state) : 0;
+        int n = snapshot != null ? snapshot.firstAfter(state, afterId) : 0;
+        Iterator<Map.Entry<Long, Row>> changes = current.changes.tailMap(afterId, false).entrySet().iterator();
+        Long change = nextIn(changes, status);
+        while (ids.size() < limit && (n < count || change != null)) {
+            long id = n < count ? snapshot.getId(snapshot.rowOf(state, n)) : 0;
+            if (n < count && current.changes.containsKey(id)) {
+                // superseded by a change, listed with the changes if still in the status
+                n++;
+            } else if (change != null && (n >= count || change < id)) {
+                ids.add(change);
+                change = nextIn(changes, status);
+            } else {
+                ids.add(id);
+                n++;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return number of applications per organization unit (null for none) and status ordinal
+     */
+    public Map<String, long[]> getCounts() {
+        Map<String, long[]> counts = new HashMap<>();
+        scan(view, Long.MIN_VALUE, (id, status, organizationUnit) -> {
+            counts.computeIfAbsent(organizationUnit, unit -> new long[STATUSES.length])[status.ordinal()]++;
+            return true;
+        });
+        return counts;
+    }
+
+    /**
+     * Reads the changes committed since the mark, reading the gaps again.
+     *
+     * @return number of applications whose status or unit changed
+     */
+    @Scheduled(fixedDelayString = "#{@fsmProperties.snapshot.catchUpInterval.toMillis()}")
+    public synchronized int catchUp() {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        View current = view;
+        int[] changed = {0};
+        if (loaded) {
+            RowCallbackHandler handler = resultSet -> {
+                long changeId = resultSet.getLong(1);
+                if (changeId > seen) {
+                    for (long id = seen + 1; id < changeId; id++) {
+                        gaps.put(id, now);
+                    }
+                    seen = changeId;
+                } else {
+                    gaps.remove(changeId);
+                }
+                long id = resultSet.getLong(2);
+                // null when the application was deleted since
+                if (!resultSet.wasNull() && apply(current, id, resultSet.getString(3), resultSet.getString(4))) {
+                    changed[0]++;
+                }
+            };
+            List<Long> missing = new ArrayList<>(gaps.keySet());
+            for (int i = 0; i < missing.size(); i += GAP_BATCH) {
+                namedParameterJdbcTemplate.query(GAPS,
+                        Collections.singletonMap("ids", missing.subList(i, Math.min(i + GAP_BATCH, missing.size()))), handler);
+            }
+            jdbcTemplate.query(CHANGED, handler, seen);
+        } else {
+            rebuild(now);
+            jdbcTemplate.query(ALL, resultSet -> {
+                if (apply(current, resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3))) {
+                    changed[0]++;
+                }
+            });
+            loaded = true;
+        }
+        expire(now);
+        changeMark = gaps.isEmpty() ? seen : gaps.firstKey() - 1;
+        return changed[0];
+    }
+
+    /**
+     * Merges the changes into a new snapshot file and maps it.
+     */
+    @Scheduled(fixedDelayString = "#{@fsmProperties.snapshot.writeInterval.toMillis()}",
+            initialDelayString = "#{@fsmProperties.snapshot.writeInterval.toMillis()}")
+    public synchronized void write() {
+        if (!enabled) {
+            return;
+        }
+        View current = view;
+        int capacity = (current.snapshot != null ? current.snapshot.size() : 0) + current.changes.size();
+        long[] ids = new long[capacity];
+        byte[] states = new byte[capacity];
+        char[] unitIndexes = new char[capacity];
+        Map<String, Integer> units = new HashMap<>();
+        int[] size = {0};
+        scan(current, Long.MIN_VALUE, (id, status, organizationUnit) -> {
+            ids[size[0]] = id;
+            states[size[0]] = (byte) status.ordinal();
+            unitIndexes[size[0]] = organizationUnit != null
+                    ? (char) (int) units.computeIfAbsent(organizationUnit, unit -> units.size()) : (char) FsmStatusSnapshot.NO_UNIT;
+            size[0]++;
+            return true;
+        });
+        String[] names = new String[units.size()];
+        units.forEach((name, index) -> names[index] = name);
+        try {
+            FsmStatusSnapshot.write(file, changeMark, Arrays.copyOf(ids, size[0]), Arrays.copyOf(states, size[0]),
+                    Arrays.copyOf(unitIndexes, size[0]), names);
+            // changes made by catch-ups are in the file; catch-up is excluded until the view is replaced
+            view = new View(FsmStatusSnapshot.open(file));
+            log.debug("Application status snapshot written, {} rows, change mark {}", size[0], changeMark);
+        } catch (IOException e) {
+            log.warn("Application status snapshot {} not written", file, e);
+        }
+    }
+
+    private FsmStatusSnapshot load() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            FsmStatusSnapshot snapshot = FsmStatusSnapshot.open(file);
+            if (snapshot.getChangeMark() > mark()) {
+                log.warn("Application status snapshot {} is ahead of the database, rebuilding", file);
+                return null;
+            }
+            if (System.currentTimeMillis() - snapshot.getCreated() > fileTimeout.toMillis()) {
+                log.warn("Application status snapshot {} is older than the retained changes, rebuilding", file);
+                return null;
+            }
+            return snapshot;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Application status snapshot {} not loaded, rebuilding", file, e);
+            return null;
+        }
+    }
+
+    private long mark() {
+        return jdbcTemplate.queryForObject(MARK, Long.class);
+    }
+
+    /**
+     * Starts reading changes after the highest id, taking the ids missing among the changes of the last gap timeout
+     * for transactions still committing. The highest id is read first, so a change committed in between is either a
+     * gap or above it.
+     */
+    private void rebuild(long now) {
+        long top = mark();
+        List<Long> recent = jdbcTemplate.queryForList(RECENT, Long.class,
+                Timestamp.valueOf(LocalDateTime.now().minus(gapTimeout)));
+        seen = Math.max(top, recent.isEmpty() ? 0 : recent.get(recent.size() - 1));
+        long next = recent.isEmpty() ? seen : recent.get(0);
+        for (long id : recent) {
+            for (; next < id; next++) {
+                gaps.put(next, now);
+            }
+            next = id + 1;
+        }
+        for (; next < seen; next++) {
+            gaps.put(next, now);
+        }
+    }
+
+    /**
+     * Drops the gaps open for the gap timeout.
+     */
+    private void expire(long now) {
+        int expired = 0;
+        for (Iterator<Long> noticed = gaps.values().iterator(); noticed.hasNext(); ) {
+            if (now - noticed.next() >= gapTimeout.toNanos()) {
+                noticed.remove();
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            log.debug("{} application change ids missing for {}, taken for rolled back", expired, gapTimeout);
+        }
+    }
+
+    /**
+     * @return true if the row differs from the view and was put into its changes
+     */
+    private static boolean apply(View view, long id, String status, String organizationUnit) {
+        Row row = new Row(ApplicationStatus.valueOf(status), organizationUnit);
+        if (row.equals(view.row(id))) {
+            return false;
+        }
+        view.changes.put(id, row);
+        return true;
+    }
+
+    /**
+     * Visits the rows with ids greater than {@code afterId} in ascending order, changes taking precedence over
+     * the mapped file, until the visitor returns false.
+     */
+    private static void scan(View view, long afterId, RowVisitor visitor) {
+        FsmStatusSnapshot snapshot = view.snapshot;
+        int size = snapshot != null ? snapshot.size() : 0;
+        int index = 0;
+        if (snapshot != null && afterId != Long.MIN_VALUE) {
+            int position = snapshot.indexOf(afterId);
+            index = position >= 0 ? position + 1 : -position - 1;
+        }
+        Iterator<Map.Entry<Long, Row>> changes = view.changes.tailMap(afterId, false).entrySet().iterator();
+        Map.Entry<Long, Row> change = changes.hasNext() ? changes.next() : null;
+        boolean more = true;
+        while (more && (index < size || change != null)) {
+            if (change != null && (index >= size || change.getKey() <= snapshot.getId(index))) {
+                if (index < size && change.getKey() == snapshot.getId(index)) {
+                    index++;
+                }
+                more = visitor.visit(change.getKey(), change.getValue().status, change.getValue().organizationUnit);
+                change = changes.hasNext() ? changes.next() : null;
+            } else {
+                more = visitor.visit(snapshot.getId(index), STATUSES[snapshot.getState(index)], snapshot.getUnit(index));
+                index++;
+            }
+        }
+    }
+
+    /**
+     * @return id of the next change into the status, null if none
+     */
+    private static Long nextIn(Iterator<Map.Entry<Long, Row>> changes, ApplicationStatus status) {
+        while (changes.hasNext()) {
+            Map.Entry<Long, Row> change = changes.next();
+            if (change.getValue().status == status) {
+                return change.getKey();
+            }
+        }
+        return null;
+    }
+
+    @FunctionalInterface
+    private interface RowVisitor {
+        boolean visit(long id, ApplicationStatus status, String organizationUnit);
+    }
+
+    /**
+     * Mapped file and the changes read since it was written; replaced as a whole so readers see a consistent pair.
+     */
+    private static final class View {
+
+        private final FsmStatusSnapshot snapshot;
+
+        private final ConcurrentSkipListMap<Long, Row> changes = new ConcurrentSkipListMap<>();
+
+        private View(FsmStatusSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private Row row(long id) {
+            Row changed = changes.get(id);
+            if (changed != null) {
+                return changed;
+            }
+            int index = snapshot != null ? snapshot.indexOf(id) : -1;
+            return index >= 0 ? new Row(STATUSES[snapshot.getState(index)], snapshot.getUnit(index)) : null;
+        }
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class Row {
+
+        private final ApplicationStatus status;
+
+        private final String organizationUnit;
+    }
+}
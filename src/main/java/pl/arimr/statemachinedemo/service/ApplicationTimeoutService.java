@@ -0,0 +1,180 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.FsmPersistMode;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.FsmTimeouts;
+import pl.arimr.statemachinedemo.fsm.TimeoutDefinition;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fires the timeout transitions of applications (see {@code applicationFsmTimeoutDefinitions}).
+ * <p>
+ * Pending deadlines live in one timing wheel, holding only ids, which is rebuilt from the DEADLINE column at
+ * startup. Every tick ({@code fsm.timers.tick-duration}) the expired ids are loaded in batches of
+ * {@code fsm.timers.batch-size}, each batch in its own transaction; applications whose DEADLINE is no longer due
+ * have left the state and are skipped, the others are sent the timeout event of their status through
+ * {@link ApplicationFsmService#sendEvents}. A batch or an application that fails is tried again after
+ * {@code fsm.timers.retry-delay}; an application whose timeout event is refused, or whose status has no timeout,
+ * has its DEADLINE cleared, so it does not fire again after every rebuild.
+ * <p>
+ * Every node fires the deadlines it knows; the compare-and-set persist mode keeps two nodes from firing the same
+ * transition twice, so timers refuse to start without it.
+ */
+@Slf4j
+@Service
+public class ApplicationTimeoutService {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ApplicationRespository applicationRespository;
+
+    private final ApplicationFsmService applicationFsmService;
+
+    private final FsmTimeouts<ApplicationStatus, ApplicationEvent> timeouts;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final Duration retryDelay;
+
+    @Autowired
+    public ApplicationTimeoutService(final JdbcTemplate jdbcTemplate,
+                                     final ApplicationRespository applicationRespository,
+                                     final ApplicationFsmService applicationFsmService,
+                                     final FsmTimeouts<ApplicationStatus, ApplicationEvent> applicationFsmTimeouts,
+                                     final PlatformTransactionManager transactionManager,
+                                     final FsmProperties fsmProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.applicationRespository = applicationRespository;
+        this.applicationFsmService = applicationFsmService;
+        this.timeouts = applicationFsmTimeouts;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.batchSize = fsmProperties.getTimers().getBatchSize();
+        this.retryDelay = fsmProperties.getTimers().getRetryDelay();
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("FSM timers batch size must be positive");
+        }
+        if (fsmProperties.getTimers().isEnabled() && fsmProperties.getPersist().getMode() != FsmPersistMode.COMPARE_AND_SET) {
+            throw new IllegalStateException("fsm.timers.enabled=true needs fsm.persist.mode=compare-and-set, "
+                    + "otherwise two nodes may fire the same timeout");
+        }
+    }
+
+    /**
+     * Schedules every deadline stored in the table.
+     */
+    @PostConstruct
+    public void rebuild() {
+        if (!timeouts.isEnabled()) {
+            return;
+        }
+        int[] count = new int[1];
+        jdbcTemplate.query("SELECT ID, DEADLINE FROM APPLICATION WHERE DEADLINE IS NOT NULL", resultSet -> {
+            timeouts.schedule(resultSet.getLong(1), resultSet.getTimestamp(2).toLocalDateTime());
+            count[0]++;
+        });
+        log.info("Scheduled {} application deadlines", count[0]);
+    }
+
+    @Scheduled(fixedDelayString = "#{@fsmProperties.timers.tickDuration.toMillis()}")
+    public void tick() {
+        if (timeouts.isEnabled()) {
+            fireDue();
+        }
+    }
+
+    /**
+     * Sends the timeout events of all applications whose deadline has passed.
+     *
+     * @return number of applications that took their timeout transition
+     */
+    public synchronized int fireDue() {
+        long[] due = timeouts.expire();
+        int fired = 0;
+        for (int from = 0; from < due.length; from += batchSize) {
+            List<Long> ids = new ArrayList<>(Math.min(batchSize, due.length - from));
+            for (int i = from; i < Math.min(from + batchSize, due.length); i++) {
+                ids.add(due[i]);
+            }
+            try {
+                fired += transactionTemplate.execute(transaction -> fire(ids));
+            } catch (RuntimeException e) {
+                log.warn("Cannot fire timeouts of {} applications, retrying in {}", ids.size(), retryDelay, e);
+                LocalDateTime retry = timeouts.now().plus(retryDelay);
+                ids.forEach(id -> timeouts.schedule(id, retry));
+            }
+        }
+        return fired;
+    }
+
+    private int fire(List<Long> ids) {
+        Map<ApplicationStatus, List<Application>> byStatus = new EnumMap<>(ApplicationStatus.class);
+        for (Application application : applicationRespository.findTimedOut(ids, timeouts.now())) {
+            byStatus.computeIfAbsent(application.getStatus(), status -> new ArrayList<>()).add(application);
+        }
+        int fired = 0;
+        List<Application> cleared = new ArrayList<>();
+        for (Map.Entry<ApplicationStatus, List<Application>> entry : byStatus.entrySet()) {
+            TimeoutDefinition<ApplicationStatus, ApplicationEvent> definition = timeouts.get(entry.getKey());
+            if (definition == null) {
+                log.warn("{} applications have a deadline in {}, which has no timeout", entry.getValue().size(), entry.getKey());
+                cleared.addAll(entry.getValue());
+                continue;
+            }
+            for (TransitionResult<ApplicationStatus, ApplicationEvent, Application> result
+                    : applicationFsmService.sendEvents(entry.getValue(), definition.getEvent())) {
+                if (result.isAccepted()) {
+                    fired++;
+                    continue;
+                }
+                log.warn("Timeout of application #{}: {}", result.getEntity().getId(), result);
+                if (result.getOutcome() == TransitionOutcome.REJECTED) {
+                    cleared.add(result.getEntity());
+                } else if (result.getOutcome() == TransitionOutcome.FAILED) {
+                    timeouts.schedule(result.getEntity().getId(), timeouts.now().plus(retryDelay));
+                }
+                // a conflict means another node moved the application, with a deadline of its own
+            }
+        }
+        clearDeadlines(cleared);
+        return fired;
+    }
+
+    /**
+     * Only while the application still has the status and deadline it was loaded with.
+     */
+    private void clearDeadlines(List<Application> applications) {
+        if (applications.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(applications.size());
+        for (Application application : applications) {
+            rows.add(new Object[]{application.getId(), application.getStatus().name(), Timestamp.valueOf(application.getDeadline())});
+        }
+        jdbcTemplate.batchUpdate("UPDATE APPLICATION SET DEADLINE = NULL WHERE ID = ? AND STATUS = ? AND DEADLINE = ?", rows);
+    }
+}
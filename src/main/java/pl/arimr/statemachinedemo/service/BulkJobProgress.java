@@ -0,0 +1,97 @@
+package pl.arimr.statemachinedemo.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live state of one {@link ApplicationBulkEventJob} run. Counters are updated by the workers as chunks commit,
+ * so the object can be polled while the job runs.
+ */
+@Getter
+public class BulkJobProgress {
+
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    private final String name;
+
+    private final LocalDateTime startedDate = LocalDateTime.now();
+
+    private final long startId;
+
+    private volatile Status status = Status.RUNNING;
+
+    private volatile LocalDateTime finishedDate;
+
+    /**
+     * Every item up to this id is committed; a restart continues after it.
+     */
+    private volatile long checkpoint;
+
+    private final AtomicLong read = new AtomicLong();
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong refused = new AtomicLong();
+
+    private final AtomicLong failedChunks = new AtomicLong();
+
+    private final int maxFailures;
+
+    private final List<Failure> failures = new ArrayList<>();
+
+    BulkJobProgress(String name, long startId, int maxFailures) {
+        this.name = name;
+        this.startId = startId;
+        this.checkpoint = startId;
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * First {@code fsm.bulk.max-failures} items that were not moved, in completion order.
+     */
+    public List<Failure> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    public boolean isRunning() {
+        return status == Status.RUNNING;
+    }
+
+    void refused(Long id, TransitionOutcome outcome, String message) {
+        refused.incrementAndGet();
+        synchronized (failures) {
+            if (failures.size() < maxFailures) {
+                failures.add(new Failure(id, outcome, message));
+            }
+        }
+    }
+
+    void checkpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    void finish(Status status) {
+        this.finishedDate = LocalDateTime.now();
+        this.status = status;
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Failure {
+        private final Long id;
+        private final TransitionOutcome outcome;
+        private final String message;
+    }
+}
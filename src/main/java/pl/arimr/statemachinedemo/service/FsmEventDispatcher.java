@@ -0,0 +1,187 @@
+package pl.arimr.statemachinedemo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.arimr.statemachinedemo.enums.FsmBackpressure;
+import pl.arimr.statemachinedemo.enums.FsmEvent;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous front of an {@link AbstractStateMachineService}: events are sharded by entity id onto single-threaded
+ * stripes ({@code fsm.dispatcher.workers}). Events of one entity are processed one at a time, in submission order,
+ * while different entities proceed in parallel. Each event runs in its own transaction of the service.
+ * <p>
+ * Every stripe queue is bounded ({@code fsm.dispatcher.queue-capacity}); when producers outrun the database the
+ * {@code fsm.dispatcher.backpressure} setting decides whether they block or get the event rejected.
+ */
+public abstract class FsmEventDispatcher<S, E extends FsmEvent, T> {
+
+    private static final Logger log = LoggerFactory.getLogger(FsmEventDispatcher.class);
+
+    private final AbstractStateMachineService<S, E, T> service;
+
+    private final ThreadPoolExecutor[] stripes;
+
+    private final FsmBackpressure backpressure;
+
+    private final long offerTimeoutMillis;
+
+    private final long shutdownTimeoutMillis;
+
+    public FsmEventDispatcher(String name, AbstractStateMachineService<S, E, T> service, FsmProperties.Dispatcher properties) {
+        if (properties.getWorkers() < 1 || properties.getQueueCapacity() < 1) {
+            throw new IllegalArgumentException("FSM dispatcher workers and queue capacity must be positive");
+        }
+        this.service = service;
+        this.backpressure = properties.getBackpressure();
+        this.offerTimeoutMillis = properties.getOfferTimeout().toMillis();
+        this.shutdownTimeoutMillis = properties.getShutdownTimeout().toMillis();
+        this.stripes = new ThreadPoolExecutor[properties.getWorkers()];
+        AtomicInteger threadNumber = new AtomicInteger();
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name + "-dispatcher-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    this::rejected);
+            stripes[i].prestartCoreThread();
+        }
+    }
+
+    /**
+     * Queues the event for the entity with the given id.
+     *
+     * @return future completed with the updated entity, or exceptionally with the
+     * {@link pl.arimr.statemachinedemo.exceptions.FsmTransitionException} of a refused transition
+     * or a {@link RejectedExecutionException} when the stripe is full or shut down
+     */
+    public CompletableFuture<T> dispatch(Object id, E event) {
+        Dispatch<T> task = new Dispatch<>(id, event, () -> service.sendEventById(id, event));
+        try {
+            stripes[stripe(id)].execute(task);
+        } catch (RejectedExecutionException e) {
+            task.result.completeExceptionally(e);
+        }
+        return task.result;
+    }
+
+    /**
+     * Number of events waiting in all stripes, not counting the ones being processed.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            depth += stripe.getQueue().size();
+        }
+        return depth;
+    }
+
+    public int getWorkers() {
+        return stripes.length;
+    }
+
+    /**
+     * Stops accepting events; events already queued are still processed for up to
+     * {@code fsm.dispatcher.shutdown-timeout}, the rest are interrupted and dropped.
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        try {
+            for (ThreadPoolExecutor stripe : stripes) {
+                if (!stripe.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    log.warn("FSM dispatcher stripe did not finish within {}ms, dropping {} queued events",
+                            shutdownTimeoutMillis, stripe.getQueue().size());
+                    drop(stripe);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (ThreadPoolExecutor stripe : stripes) {
+                drop(stripe);
+            }
+        }
+    }
+
+    private void drop(ThreadPoolExecutor stripe) {
+        for (Runnable task : stripe.shutdownNow()) {
+            Dispatch<?> dispatch = (Dispatch<?>) task;
+            dispatch.result.completeExceptionally(new RejectedExecutionException(
+                    "FSM dispatcher shut down, " + dispatch.event + " for #" + dispatch.id + " dropped"));
+        }
+    }
+
+    /**
+     * Called by {@code execute} when the stripe queue is full or the stripe is shut down. Under
+     * {@link FsmBackpressure#BLOCK} the producer waits for room; a task that lands in the queue of a stripe shut down
+     * meanwhile is taken back out and rejected, since its thread may already have exited.
+     */
+    private void rejected(Runnable task, ThreadPoolExecutor stripe) {
+        Dispatch<?> dispatch = (Dispatch<?>) task;
+        if (!stripe.isShutdown() && backpressure == FsmBackpressure.BLOCK) {
+            BlockingQueue<Runnable> queue = stripe.getQueue();
+            log.debug("FSM dispatcher stripe full, waiting up to {}ms", offerTimeoutMillis);
+            try {
+                if (queue.offer(task, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    if (!stripe.isShutdown() || !queue.remove(task)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while queueing " + dispatch.event + " for #" + dispatch.id, e);
+            }
+        }
+        throw new RejectedExecutionException(stripe.isShutdown()
+                ? "FSM dispatcher shut down, " + dispatch.event + " for #" + dispatch.id + " rejected"
+                : "FSM dispatcher queue full, " + dispatch.event + " for #" + dispatch.id + " rejected");
+    }
+
+    private int stripe(Object id) {
+        int hash = id.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    private static final class Dispatch<T> implements Runnable {
+
+        private final Object id;
+
+        private final Object event;
+
+        private final Callable<T> action;
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Dispatch(Object id, Object event, Callable<T> action) {
+            this.id = id;
+            this.event = event;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(action.call());
+            } catch (Throwable e) {
+                // an Error must not leave the caller waiting forever
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
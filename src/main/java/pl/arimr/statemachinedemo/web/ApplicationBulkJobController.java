@@ -0,0 +1,54 @@
+package pl.arimr.statemachinedemo.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.service.ApplicationBulkEventJob;
+import pl.arimr.statemachinedemo.service.BulkJobProgress;
+
+/**
+ * Starts and monitors {@link ApplicationBulkEventJob} runs, e.g.
+ * {@code POST /applications/bulk-jobs/approve-x?status=ACCEPTED&organizationUnit=X&event=APPROVE}.
+ */
+@RestController
+@RequestMapping("/applications/bulk-jobs")
+public class ApplicationBulkJobController {
+
+    private final ApplicationBulkEventJob bulkEventJob;
+
+    @Autowired
+    public ApplicationBulkJobController(final ApplicationBulkEventJob bulkEventJob) {
+        this.bulkEventJob = bulkEventJob;
+    }
+
+    @PostMapping("/{name}")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public BulkJobProgress start(@PathVariable final String name,
+                                 @RequestParam final ApplicationStatus status,
+                                 @RequestParam final String organizationUnit,
+                                 @RequestParam final ApplicationEvent event) {
+        return bulkEventJob.start(name, status, organizationUnit, event);
+    }
+
+    @GetMapping("/{name}")
+    public ResponseEntity<BulkJobProgress> getProgress(@PathVariable final String name) {
+        BulkJobProgress progress = bulkEventJob.getProgress(name);
+        return progress != null ? ResponseEntity.ok(progress) : ResponseEntity.notFound().build();
+    }
+
+    @ExceptionHandler(IllegalStateException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String conflict(IllegalStateException e) {
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,18 @@
+package pl.arimr.statemachinedemo.web;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+
+/**
+ * One line of a streamed request, e.g. {@code {"applicationId":42,"event":"ACCEPT"}}.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class ApplicationEventLine {
+
+    private Long applicationId;
+    private ApplicationEvent event;
+}
@@ -0,0 +1,27 @@
+package pl.arimr.statemachinedemo.web;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+
+/**
+ * Result of one request line. {@code status} is the application's status after the line, absent if the
+ * application was not found.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ApplicationEventLineResult {
+
+    private long line;
+    private Long applicationId;
+    private ApplicationEvent event;
+    private TransitionOutcome outcome;
+    private ApplicationStatus status;
+    private String message;
+}
@@ -0,0 +1,167 @@
+package pl.arimr.statemachinedemo.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends events to many applications in one request. The body is NDJSON, one {@link ApplicationEventLine} per line;
+ * the response is NDJSON too, one {@link ApplicationEventLineResult} per non-blank request line, in request order.
+ * <p>
+ * The body is read {@code fsm.stream.chunk-size} lines at a time. Each chunk is sent through
+ * {@link ApplicationFsmService#sendEventsById} in its own transaction and its results are written and flushed
+ * before the next chunk is read, so neither the request nor the response is held in memory. Chunks committed
+ * before a failure stay committed; the lines of a failed chunk are answered {@code FAILED} and the stream goes on.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/applications/events")
+public class ApplicationEventStreamController {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final ApplicationFsmService applicationFsmService;
+
+    private final ObjectReader lineReader;
+
+    private final ObjectWriter resultWriter;
+
+    private final int chunkSize;
+
+    @Autowired
+    public ApplicationEventStreamController(final ApplicationFsmService applicationFsmService,
+                                            final ObjectMapper objectMapper,
+                                            final FsmProperties fsmProperties) {
+        this.applicationFsmService = applicationFsmService;
+        this.lineReader = objectMapper.readerFor(ApplicationEventLine.class);
+        this.resultWriter = objectMapper.writerFor(ApplicationEventLineResult.class);
+        this.chunkSize = fsmProperties.getStream().getChunkSize();
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("FSM stream chunk size must be positive");
+        }
+    }
+
+    @PostMapping(consumes = NDJSON, produces = NDJSON)
+    public void sendEvents(final InputStream body, final HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        OutputStream out = response.getOutputStream();
+        Chunk chunk = new Chunk();
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            chunk.add(lineNumber, line);
+            if (chunk.size() == chunkSize) {
+                chunk.send(out);
+                response.flushBuffer();
+            }
+        }
+        chunk.send(out);
+        response.flushBuffer();
+    }
+
+    /**
+     * Lines read since the last flush, results in request order; lines that cannot be parsed are answered
+     * without a transition.
+     */
+    private class Chunk {
+
+        private final List<ApplicationEventLineResult> results = new ArrayList<>(chunkSize);
+
+        private final List<Integer> pending = new ArrayList<>(chunkSize);
+
+        private final List<Long> ids = new ArrayList<>(chunkSize);
+
+        private final List<ApplicationEvent> events = new ArrayList<>(chunkSize);
+
+        void add(long lineNumber, String line) {
+            ApplicationEventLine eventLine;
+            try {
+                eventLine = lineReader.readValue(line);
+            } catch (JsonProcessingException e) {
+                results.add(rejected(lineNumber, null, null, "Invalid line: " + e.getOriginalMessage()));
+                return;
+            } catch (IOException e) {
+                results.add(rejected(lineNumber, null, null, "Invalid line: " + e.getMessage()));
+                return;
+            }
+            if (eventLine.getApplicationId() == null || eventLine.getEvent() == null) {
+                results.add(rejected(lineNumber, eventLine.getApplicationId(), eventLine.getEvent(), "applicationId and event are required"));
+                return;
+            }
+            pending.add(results.size());
+            results.add(new ApplicationEventLineResult(lineNumber, eventLine.getApplicationId(), eventLine.getEvent(), null, null, null));
+            ids.add(eventLine.getApplicationId());
+            events.add(eventLine.getEvent());
+        }
+
+        int size() {
+            return results.size();
+        }
+
+        void send(OutputStream out) throws IOException {
+            if (!ids.isEmpty()) {
+                transition();
+            }
+            for (ApplicationEventLineResult result : results) {
+                out.write(resultWriter.writeValueAsBytes(result));
+                out.write('\n');
+            }
+            results.clear();
+            pending.clear();
+            ids.clear();
+            events.clear();
+        }
+
+        private void transition() {
+            try {
+                List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> transitions = applicationFsmService.sendEventsById(ids, events);
+                for (int i = 0; i < transitions.size(); i++) {
+                    TransitionResult<ApplicationStatus, ApplicationEvent, Application> transition = transitions.get(i);
+                    ApplicationEventLineResult request = results.get(pending.get(i));
+                    results.set(pending.get(i), new ApplicationEventLineResult(request.getLine(), request.getApplicationId(), request.getEvent(),
+                            transition.getOutcome(), transition.isAccepted() ? transition.getTarget() : transition.getSource(), transition.getMessage()));
+                }
+            } catch (RuntimeException e) {
+                log.error("Cannot send events of {} lines: {}", ids.size(), e.getMessage(), e);
+                for (int index : pending) {
+                    ApplicationEventLineResult request = results.get(index);
+                    results.set(index, new ApplicationEventLineResult(request.getLine(), request.getApplicationId(), request.getEvent(),
+                            TransitionOutcome.FAILED, null, e.getMessage()));
+                }
+            }
+        }
+
+        private ApplicationEventLineResult rejected(long lineNumber, Long applicationId, ApplicationEvent event, String message) {
+            return new ApplicationEventLineResult(lineNumber, applicationId, event, TransitionOutcome.REJECTED, null, message);
+        }
+    }
+}
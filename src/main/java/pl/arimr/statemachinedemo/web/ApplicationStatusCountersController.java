@@ -0,0 +1,41 @@
+package pl.arimr.statemachinedemo.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.service.ApplicationStatusCounters;
+
+import java.util.Map;
+
+/**
+ * Dashboard counts served from {@link ApplicationStatusCounters}; no request touches the database.
+ */
+@RestController
+@RequestMapping("/applications/status-counts")
+public class ApplicationStatusCountersController {
+
+    private final ApplicationStatusCounters statusCounters;
+
+    @Autowired
+    public ApplicationStatusCountersController(final ApplicationStatusCounters statusCounters) {
+        this.statusCounters = statusCounters;
+    }
+
+    @GetMapping
+    public Map<String, Map<ApplicationStatus, Long>> getCounts() {
+        return statusCounters.getCounts();
+    }
+
+    @GetMapping("/total")
+    public Map<ApplicationStatus, Long> getTotals() {
+        return statusCounters.getTotals();
+    }
+
+    @GetMapping("/{organizationUnit}")
+    public Map<ApplicationStatus, Long> getCounts(@PathVariable final String organizationUnit) {
+        return statusCounters.getCounts(organizationUnit);
+    }
+}
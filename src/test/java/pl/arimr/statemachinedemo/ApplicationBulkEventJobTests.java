@@ -0,0 +1,164 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.BulkJobCheckpoint;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.repositories.BulkJobCheckpointRepository;
+import pl.arimr.statemachinedemo.service.ApplicationBulkEventJob;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+import pl.arimr.statemachinedemo.service.BulkJobProgress;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Every test uses its own organization unit.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.bulk.chunk-size=3", "fsm.bulk.workers=2"})
+@AutoConfigureMockMvc
+public class ApplicationBulkEventJobTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private BulkJobCheckpointRepository checkpointRepository;
+
+    @SpyBean
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private ApplicationBulkEventJob bulkEventJob;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void approves_every_matching_application_and_collects_refusals() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> approvable = accepted(unit, 7, BigDecimal.TEN);
+        List<Long> zeroAmount = accepted(unit, 2, BigDecimal.ZERO);
+        Long otherUnit = accepted(UUID.randomUUID().toString(), 1, BigDecimal.TEN).get(0);
+
+        BulkJobProgress progress = bulkEventJob.run(unit, ApplicationStatus.ACCEPTED, unit, ApplicationEvent.APPROVE);
+
+        Assert.assertEquals(BulkJobProgress.Status.COMPLETED, progress.getStatus());
+        Assert.assertEquals(9, progress.getRead().get());
+        Assert.assertEquals(7, progress.getAccepted().get());
+        Assert.assertEquals(2, progress.getRefused().get());
+        for (BulkJobProgress.Failure failure : progress.getFailures()) {
+            Assert.assertTrue(zeroAmount.contains(failure.getId()));
+            Assert.assertEquals(TransitionOutcome.REJECTED, failure.getOutcome());
+            Assert.assertEquals("Cannot approve with incorrect amount", failure.getMessage());
+        }
+        for (Long id : approvable) {
+            Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(id).get().getStatus());
+        }
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(otherUnit).get().getStatus());
+        Assert.assertFalse(checkpointRepository.existsById(unit));
+    }
+
+    @Test
+    public void restarted_job_continues_after_checkpoint() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> ids = accepted(unit, 5, BigDecimal.TEN);
+        checkpointRepository.save(new BulkJobCheckpoint(unit, ApplicationStatus.ACCEPTED, unit, ApplicationEvent.APPROVE, ids.get(1)));
+
+        BulkJobProgress progress = bulkEventJob.run(unit, ApplicationStatus.ACCEPTED, unit, ApplicationEvent.APPROVE);
+
+        Assert.assertEquals(ids.get(1).longValue(), progress.getStartId());
+        Assert.assertEquals(3, progress.getAccepted().get());
+        Assert.assertEquals(ids.get(4).longValue(), progress.getCheckpoint());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(ids.get(1)).get().getStatus());
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(ids.get(2)).get().getStatus());
+        Assert.assertFalse(checkpointRepository.existsById(unit));
+    }
+
+    @Test
+    public void rolled_back_chunk_stops_checkpoint() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> ids = accepted(unit, 9, BigDecimal.TEN);
+        Mockito.doAnswer(invocation -> {
+            for (Application application : invocation.<Collection<Application>>getArgument(0)) {
+                if (application.getId().equals(ids.get(3))) {
+                    throw new IllegalStateException("Chunk refused");
+                }
+            }
+            return invocation.callRealMethod();
+        }).when(applicationFsmService).sendEvents(Mockito.anyCollection(), Mockito.any());
+
+        BulkJobProgress progress = bulkEventJob.run(unit, ApplicationStatus.ACCEPTED, unit, ApplicationEvent.APPROVE);
+
+        Assert.assertEquals(BulkJobProgress.Status.FAILED, progress.getStatus());
+        Assert.assertEquals(1, progress.getFailedChunks().get());
+        Assert.assertEquals(6, progress.getAccepted().get());
+        Assert.assertEquals(ids.get(2).longValue(), progress.getCheckpoint());
+        Assert.assertEquals(ids.get(2).longValue(), checkpointRepository.findById(unit).get().getLastId());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(ids.get(4)).get().getStatus());
+        // a later chunk committed, but the checkpoint must not pass the rolled back one
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(ids.get(8)).get().getStatus());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkpoint_of_another_filter_is_rejected() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> ids = accepted(unit, 2, BigDecimal.TEN);
+        checkpointRepository.save(new BulkJobCheckpoint(unit, ApplicationStatus.ENTERED, unit, ApplicationEvent.ACCEPT, ids.get(0)));
+
+        bulkEventJob.run(unit, ApplicationStatus.ACCEPTED, unit, ApplicationEvent.APPROVE);
+    }
+
+    @Test
+    public void endpoint_starts_and_reports_job() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        accepted(unit, 2, BigDecimal.TEN);
+
+        mockMvc.perform(post("/applications/bulk-jobs/" + unit)
+                .param("status", "ACCEPTED").param("organizationUnit", unit).param("event", "APPROVE"))
+                .andExpect(status().isAccepted());
+        BulkJobProgress progress = bulkEventJob.getProgress(unit);
+        for (int i = 0; i < 100 && progress.isRunning(); i++) {
+            Thread.sleep(50);
+        }
+
+        mockMvc.perform(get("/applications/bulk-jobs/" + unit))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.accepted").value(2));
+        mockMvc.perform(get("/applications/bulk-jobs/" + UUID.randomUUID()))
+                .andExpect(status().isNotFound());
+    }
+
+    private List<Long> accepted(String unit, int count, BigDecimal amount) throws FsmTransitionException {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Long id = applicationRespository.save(new Application("A" + i, unit, amount)).getId();
+            applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+            ids.add(id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,224 @@
+package pl.arimr.statemachinedemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationIngestService;
+import pl.arimr.statemachinedemo.web.ApplicationEventLineResult;
+
+import javax.servlet.ServletInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static pl.arimr.statemachinedemo.web.ApplicationEventStreamController.NDJSON;
+
+/**
+ * Audit, outbox and the per-machine lifecycle logging are switched off, they only slow down the long stream.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.audit.enabled=false", "fsm.outbox.enabled=false", "logging.level.org.springframework.statemachine=warn"})
+@AutoConfigureMockMvc
+public class ApplicationEventStreamTests {
+
+    private static final int APPLICATIONS = 2000;
+
+    private static final int ROUNDS = 100;
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationIngestService applicationIngestService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void lines_are_answered_in_order() throws Exception {
+        Long first = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        Long second = applicationRespository.save(new Application("B", "X", null)).getId();
+        String body = "{\"applicationId\":" + first + ",\"event\":\"ACCEPT\"}\n"
+                + "{\"applicationId\":" + first + ",\"event\":\"APPROVE\"}\n"
+                + "\n"
+                + "{\"applicationId\":" + second + ",\"event\":\"APPROVE\"}\n"
+                + "not json\n"
+                + "{\"applicationId\":" + second + "}\n"
+                + "{\"applicationId\":-1,\"event\":\"ACCEPT\"}";
+
+        String response = mockMvc.perform(post("/applications/events").contentType(NDJSON).accept(NDJSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        List<ApplicationEventLineResult> results = new ArrayList<>();
+        for (String line : response.split("\n")) {
+            results.add(objectMapper.readValue(line, ApplicationEventLineResult.class));
+        }
+        Assert.assertEquals(6, results.size());
+        assertResult(results.get(0), 1, TransitionOutcome.ACCEPTED, ApplicationStatus.ACCEPTED);
+        assertResult(results.get(1), 2, TransitionOutcome.ACCEPTED, ApplicationStatus.APPROVED);
+        assertResult(results.get(2), 4, TransitionOutcome.REJECTED, ApplicationStatus.ENTERED);
+        assertResult(results.get(3), 5, TransitionOutcome.REJECTED, null);
+        assertResult(results.get(4), 6, TransitionOutcome.REJECTED, null);
+        assertResult(results.get(5), 7, TransitionOutcome.REJECTED, null);
+        Assert.assertEquals(ApplicationEvent.ACCEPT, results.get(5).getEvent());
+        Assert.assertTrue(results.get(5).getMessage().contains("not found"));
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(first).get().getStatus());
+    }
+
+    /**
+     * The body is generated while it is read and never exists as a whole: every application is accepted and
+     * discarded again, round after round. Before a round is generated, the previous round must already be
+     * committed, which shows the stream is processed while it is still being received.
+     */
+    @Test
+    public void long_stream_is_processed_incrementally() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        List<Application> applications = new ArrayList<>(APPLICATIONS);
+        for (int i = 0; i < APPLICATIONS; i++) {
+            applications.add(new Application("A" + i, unit, BigDecimal.TEN));
+        }
+        applicationIngestService.ingest(applications);
+        long[] ids = applications.stream().mapToLong(Application::getId).toArray();
+        List<String> lagging = new ArrayList<>();
+        InputStream body = new LineGenerator(ROUNDS * APPLICATIONS) {
+            @Override
+            String line(int index) {
+                int round = index / APPLICATIONS;
+                if (index % APPLICATIONS == 0 && round > 0) {
+                    String expected = round % 2 == 1 ? "ACCEPTED" : "ENTERED";
+                    String actual = jdbcTemplate.queryForObject("SELECT STATUS FROM APPLICATION WHERE ID = ?", String.class, ids[0]);
+                    if (!expected.equals(actual)) {
+                        lagging.add("round " + round + ": " + actual);
+                    }
+                }
+                ApplicationEvent event = round % 2 == 0 ? ApplicationEvent.ACCEPT : ApplicationEvent.DISCARD;
+                return "{\"applicationId\":" + ids[index % APPLICATIONS] + ",\"event\":\"" + event + "\"}\n";
+            }
+        };
+
+        byte[] response = mockMvc.perform(servletContext -> {
+            MockHttpServletRequest request = new MockHttpServletRequest(servletContext, "POST", "/applications/events") {
+                @Override
+                public ServletInputStream getInputStream() {
+                    return new DelegatingServletInputStream(body);
+                }
+            };
+            request.setContentType(NDJSON);
+            request.addHeader("Accept", NDJSON);
+            return request;
+        }).andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+
+        Assert.assertEquals(new ArrayList<String>(), lagging);
+        int lines = 0;
+        int lastLine = 0;
+        for (int i = 0; i < response.length; i++) {
+            if (response[i] == '\n') {
+                lines++;
+                lastLine = i + 1;
+            }
+        }
+        Assert.assertEquals(ROUNDS * APPLICATIONS, lines);
+        String accepted = "\"outcome\":\"ACCEPTED\"";
+        Assert.assertEquals(lines, countOccurrences(new String(response, StandardCharsets.UTF_8), accepted));
+        Assert.assertEquals(lastLine, response.length);
+        // the last round discards
+        Assert.assertEquals(ApplicationStatus.ENTERED.name(), jdbcTemplate.queryForObject(
+                "SELECT STATUS FROM APPLICATION WHERE ID = ?", String.class, ids[APPLICATIONS - 1]));
+    }
+
+    private static void assertResult(ApplicationEventLineResult result, long line, TransitionOutcome outcome, ApplicationStatus status) {
+        Assert.assertEquals(line, result.getLine());
+        Assert.assertEquals(outcome, result.getOutcome());
+        Assert.assertEquals(status, result.getStatus());
+    }
+
+    private static int countOccurrences(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Produces the lines of a body one at a time, as they are read.
+     */
+    private abstract static class LineGenerator extends InputStream {
+
+        private final int lines;
+
+        private int next;
+
+        private byte[] current = new byte[0];
+
+        private int position;
+
+        LineGenerator(int lines) {
+            this.lines = lines;
+        }
+
+        abstract String line(int index);
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++];
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() {
+            if (position < current.length) {
+                return true;
+            }
+            if (next == lines) {
+                return false;
+            }
+            current = line(next++).getBytes(StandardCharsets.UTF_8);
+            position = 0;
+            return true;
+        }
+    }
+}
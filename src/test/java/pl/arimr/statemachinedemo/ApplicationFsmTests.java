@@ -1,5 +1,6 @@
 package pl.arimr.statemachinedemo;
 
+import org.hibernate.Hibernate;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,10 +10,13 @@ import org.springframework.test.context.junit4.SpringRunner;
 import pl.arimr.statemachinedemo.domain.Application;
 import pl.arimr.statemachinedemo.enums.ApplicationEvent;
 import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
 import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
 import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
 import pl.arimr.statemachinedemo.service.ApplicationFsmService;
 
+import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
 import java.math.BigDecimal;
 
@@ -28,6 +32,9 @@ public class ApplicationFsmTests {
     @Autowired
     private ApplicationFsmService applicationFsmService;
 
+    @Autowired
+    private EntityManager entityManager;
+
     @Test
     public void check_initial_status() {
         Application application = new Application("A", "X", BigDecimal.ZERO);
@@ -46,6 +53,23 @@ public class ApplicationFsmTests {
         Assert.assertEquals(ApplicationStatus.ACCEPTED, application.getStatus());
     }
 
+    @Test
+    public void approve_proxied_entity() throws FsmTransitionException {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+        applicationFsmService.sendEvent(application, ApplicationEvent.ACCEPT);
+        entityManager.flush();
+        entityManager.clear();
+        // the proxy's own status field holds the constructor default, ENTERED
+        Application proxy = applicationRespository.getOne(application.getId());
+        Assert.assertFalse(Hibernate.isInitialized(proxy));
+
+        applicationFsmService.sendEvent(proxy, ApplicationEvent.APPROVE);
+        entityManager.flush();
+
+        entityManager.clear();
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.getOne(application.getId()).getStatus());
+    }
+
     @Test(expected = FsmTransitionException.class)
     public void cannot_accept_unsaved_entity() throws FsmTransitionException {
         Application application = new Application("A", "X", BigDecimal.ZERO);
@@ -145,4 +169,47 @@ public class ApplicationFsmTests {
         Assert.assertEquals(ApplicationStatus.APPROVED, application.getStatus());
         Assert.assertEquals("APPROVED: A", application.getName());
     }
+
+    @Test
+    public void try_send_reports_guard_rejection() throws FsmTransitionException {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.ZERO));
+        applicationFsmService.sendEvent(application, ApplicationEvent.ACCEPT);
+
+        TransitionResult<ApplicationStatus, ApplicationEvent, Application> result =
+                applicationFsmService.trySendEvent(application, ApplicationEvent.APPROVE);
+        Assert.assertEquals(TransitionOutcome.REJECTED, result.getOutcome());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, result.getSource());
+        Assert.assertNull(result.getTarget());
+        Assert.assertEquals("Cannot approve with incorrect amount", result.getMessage());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, application.getStatus());
+    }
+
+    @Test
+    public void try_send_reports_event_without_transition() {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+
+        TransitionResult<ApplicationStatus, ApplicationEvent, Application> result =
+                applicationFsmService.trySendEvent(application, ApplicationEvent.DISCARD);
+        Assert.assertEquals(TransitionOutcome.REJECTED, result.getOutcome());
+        Assert.assertEquals(ApplicationStatus.ENTERED, result.getSource());
+        Assert.assertEquals(FsmTransitionException.DEFAULT_MESSAGE, result.getMessage());
+    }
+
+    @Test
+    public void try_send_reports_accepted_transition() {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+
+        TransitionResult<ApplicationStatus, ApplicationEvent, Application> result =
+                applicationFsmService.trySendEvent(application, ApplicationEvent.ACCEPT);
+        Assert.assertTrue(result.isAccepted());
+        Assert.assertEquals(ApplicationStatus.ENTERED, result.getSource());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, result.getTarget());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, result.getEntity().getStatus());
+    }
+
+    @Test
+    public void stackless_exception_has_no_stack_trace() {
+        Assert.assertEquals(0, new FsmTransitionException("refused", false).getStackTrace().length);
+        Assert.assertNotEquals(0, new FsmTransitionException("refused").getStackTrace().length);
+    }
 }
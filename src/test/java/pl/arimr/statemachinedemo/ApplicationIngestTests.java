@@ -0,0 +1,81 @@
+package pl.arimr.statemachinedemo;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationIngestService;
+import pl.arimr.statemachinedemo.service.ApplicationStatusCounters;
+
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.ingest.chunk-size=50", "spring.jpa.properties.hibernate.generate_statistics=true"})
+public class ApplicationIngestTests {
+
+    @Autowired
+    private ApplicationIngestService applicationIngestService;
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationStatusCounters statusCounters;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void ingested_applications_are_entered_and_batched() {
+        String unit = UUID.randomUUID().toString();
+        List<Application> applications = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            applications.add(new Application("A" + i, unit, BigDecimal.TEN));
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        Assert.assertEquals(120, applicationIngestService.ingest(applications));
+
+        // one insert statement per batch and a sequence call per 50 ids, not one round trip per row
+        Assert.assertTrue("prepared " + statistics.getPrepareStatementCount(), statistics.getPrepareStatementCount() < 20);
+        Assert.assertEquals(120, statistics.getEntityInsertCount());
+        List<Application> stored = applicationRespository.findPage(ApplicationStatus.ENTERED, unit, 0, PageRequest.of(0, 200));
+        Assert.assertEquals(120, stored.size());
+        Assert.assertNotNull(stored.get(0).getCreatedDate());
+        Assert.assertEquals(120, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+    }
+
+    @Test
+    public void uuids_are_random_version_4() {
+        Set<String> uuids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.fromString(new Application("A", "X", BigDecimal.TEN).getUuid());
+            Assert.assertEquals(4, uuid.version());
+            Assert.assertEquals(2, uuid.variant());
+            uuids.add(uuid.toString());
+        }
+        Assert.assertEquals(1000, uuids.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saved_application_is_not_ingested() {
+        Application saved = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+        applicationIngestService.ingest(Collections.singletonList(saved));
+    }
+}
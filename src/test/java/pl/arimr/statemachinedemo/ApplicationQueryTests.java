@@ -0,0 +1,106 @@
+package pl.arimr.statemachinedemo;
+
+import org.hibernate.Session;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.ApplicationSummary;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class ApplicationQueryTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    public void keyset_pages_cover_all_matching_rows_once() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> expected = accepted(unit, 7);
+        applicationRespository.save(new Application("entered", unit, BigDecimal.TEN));
+        accepted(UUID.randomUUID().toString(), 1);
+
+        List<Long> read = new ArrayList<>();
+        long afterId = 0;
+        List<Application> page;
+        while (!(page = applicationRespository.findPage(ApplicationStatus.ACCEPTED, unit, afterId, PageRequest.of(0, 3))).isEmpty()) {
+            Assert.assertTrue(page.size() <= 3);
+            for (Application application : page) {
+                read.add(application.getId());
+            }
+            afterId = page.get(page.size() - 1).getId();
+        }
+
+        Assert.assertEquals(expected, read);
+    }
+
+    @Test
+    public void summaries_hold_projected_columns() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> ids = accepted(unit, 2);
+
+        List<ApplicationSummary> summaries = applicationRespository.findSummaryPage(ApplicationStatus.ACCEPTED, unit, ids.get(0), PageRequest.of(0, 10));
+
+        Assert.assertEquals(1, summaries.size());
+        Assert.assertEquals(ids.get(1), summaries.get(0).getId());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, summaries.get(0).getStatus());
+        Assert.assertEquals(0, BigDecimal.TEN.compareTo(summaries.get(0).getAmount()));
+    }
+
+    @Test
+    public void streamed_entities_are_read_only() throws FsmTransitionException {
+        String unit = UUID.randomUUID().toString();
+        List<Long> ids = accepted(unit, 3);
+        entityManager.flush();
+        entityManager.clear();
+
+        List<Application> streamed;
+        try (Stream<Application> stream = applicationRespository.streamByStatus(ApplicationStatus.ACCEPTED, unit)) {
+            streamed = stream.collect(Collectors.toList());
+        }
+
+        Assert.assertEquals(ids, streamed.stream().map(Application::getId).collect(Collectors.toList()));
+        Session session = entityManager.unwrap(Session.class);
+        for (Application application : streamed) {
+            Assert.assertTrue(session.isReadOnly(application));
+        }
+        try (Stream<ApplicationSummary> stream = applicationRespository.streamSummariesByStatus(ApplicationStatus.ACCEPTED, unit)) {
+            Assert.assertEquals(ids, stream.map(ApplicationSummary::getId).collect(Collectors.toList()));
+        }
+    }
+
+    private List<Long> accepted(String unit, int count) throws FsmTransitionException {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Application application = applicationRespository.save(new Application("A" + i, unit, BigDecimal.TEN));
+            ids.add(applicationFsmService.sendEvent(application, ApplicationEvent.ACCEPT).getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,179 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+import pl.arimr.statemachinedemo.service.ApplicationStatusCounters;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Every test uses its own organization unit.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class ApplicationStatusCountersTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private ApplicationStatusCounters statusCounters;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void committed_transitions_move_counters() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        Application first = applicationRespository.save(new Application("A", unit, BigDecimal.TEN));
+        Application second = applicationRespository.save(new Application("B", unit, BigDecimal.TEN));
+        statusCounters.reconcile();
+        Assert.assertEquals(2, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+
+        applicationFsmService.sendEventById(first.getId(), ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEventById(first.getId(), ApplicationEvent.APPROVE);
+        transactionTemplate.execute(status -> applicationFsmService.sendEvents(
+                Arrays.asList(applicationRespository.findById(second.getId()).get()), ApplicationEvent.ACCEPT));
+
+        Assert.assertEquals(0, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+        Assert.assertEquals(1, statusCounters.getCount(unit, ApplicationStatus.ACCEPTED));
+        Assert.assertEquals(1, statusCounters.getCount(unit, ApplicationStatus.APPROVED));
+    }
+
+    @Test
+    public void saved_application_is_counted_without_reconcile() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        Application application = applicationRespository.save(new Application("A", unit, BigDecimal.TEN));
+        Assert.assertEquals(1, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+
+        applicationFsmService.sendEventById(application.getId(), ApplicationEvent.ACCEPT);
+        transactionTemplate.execute(status -> {
+            try {
+                return applicationFsmService.sendEvent(
+                        applicationRespository.save(new Application("B", unit, BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+            } catch (FsmTransitionException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Assert.assertEquals(0, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+        Assert.assertEquals(2, statusCounters.getCount(unit, ApplicationStatus.ACCEPTED));
+    }
+
+    @Test
+    public void rolled_back_transition_does_not_move_counters() {
+        String unit = UUID.randomUUID().toString();
+        Application application = applicationRespository.save(new Application("A", unit, BigDecimal.TEN));
+        statusCounters.reconcile();
+
+        transactionTemplate.execute(status -> {
+            applicationFsmService.trySendEvent(applicationRespository.findById(application.getId()).get(), ApplicationEvent.ACCEPT);
+            status.setRollbackOnly();
+            return null;
+        });
+
+        Assert.assertEquals(1, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+        Assert.assertEquals(0, statusCounters.getCount(unit, ApplicationStatus.ACCEPTED));
+    }
+
+    @Test
+    public void reconcile_corrects_changes_made_outside_the_machine() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        Application application = applicationRespository.save(new Application("A", unit, BigDecimal.TEN));
+        statusCounters.reconcile();
+        applicationRespository.delete(application);
+        Assert.assertEquals(1, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+
+        statusCounters.reconcile();
+
+        Assert.assertEquals(0, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+        mockMvc.perform(get("/applications/status-counts/" + unit))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ENTERED").value(0));
+    }
+
+    @Test
+    public void endpoint_serves_counts_of_unit() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        applicationRespository.save(new Application("A", unit, BigDecimal.TEN));
+        statusCounters.reconcile();
+
+        mockMvc.perform(get("/applications/status-counts/" + unit))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ENTERED").value(1))
+                .andExpect(jsonPath("$.ACCEPTED").value(0));
+        mockMvc.perform(get("/applications/status-counts"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['" + unit + "'].ENTERED").value(1));
+    }
+
+    @Test
+    public void reconcile_during_transitions_counts_each_once() throws Exception {
+        String unit = UUID.randomUUID().toString();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(applicationRespository.save(new Application("A" + i, unit, BigDecimal.TEN)).getId());
+        }
+        AtomicBoolean moving = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            Future<?> reconciling = executor.submit(() -> {
+                while (moving.get()) {
+                    statusCounters.reconcile();
+                }
+            });
+            List<Future<?>> moves = new ArrayList<>();
+            for (int worker = 0; worker < 4; worker++) {
+                int first = worker;
+                moves.add(executor.submit(() -> {
+                    for (int i = first; i < ids.size(); i += 4) {
+                        applicationFsmService.sendEventById(ids.get(i), ApplicationEvent.ACCEPT);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> move : moves) {
+                move.get();
+            }
+            moving.set(false);
+            reconciling.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(0, statusCounters.getCount(unit, ApplicationStatus.ENTERED));
+        Assert.assertEquals(200, statusCounters.getCount(unit, ApplicationStatus.ACCEPTED));
+    }
+}
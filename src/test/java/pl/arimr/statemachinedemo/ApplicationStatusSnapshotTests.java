@@ -0,0 +1,225 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.FsmStatusSnapshot;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+import pl.arimr.statemachinedemo.service.ApplicationStatusSnapshot;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * A second {@link ApplicationStatusSnapshot} on the same file plays a restarted node.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.snapshot.enabled=true", "fsm.snapshot.file=target/snapshot-${random.uuid}.snapshot",
+        "fsm.snapshot.catch-up-interval=1h"})
+public class ApplicationStatusSnapshotTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private ApplicationStatusSnapshot statusSnapshot;
+
+    @Autowired
+    private FsmProperties fsmProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void snapshot_follows_committed_transitions() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        statusSnapshot.catchUp();
+        Assert.assertEquals(ApplicationStatus.ENTERED, statusSnapshot.getStatus(id));
+
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        Assert.assertEquals(ApplicationStatus.ENTERED, statusSnapshot.getStatus(id));
+        statusSnapshot.catchUp();
+
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, statusSnapshot.getStatus(id));
+        Assert.assertTrue(statusSnapshot.getIds(ApplicationStatus.ACCEPTED, id - 1, 10).contains(id));
+        Assert.assertFalse(statusSnapshot.getIds(ApplicationStatus.ENTERED, id - 1, 10).contains(id));
+        Assert.assertNull(statusSnapshot.getStatus(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void restarted_node_replays_changes_after_marks() throws Exception {
+        Long moved = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        Long approved = applicationRespository.save(new Application("A", null, BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(approved, ApplicationEvent.ACCEPT);
+        statusSnapshot.catchUp();
+        statusSnapshot.write();
+
+        applicationFsmService.sendEventById(moved, ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEventById(approved, ApplicationEvent.APPROVE);
+        Long inserted = applicationRespository.save(new Application("A", "Y", BigDecimal.TEN)).getId();
+
+        ApplicationStatusSnapshot restarted = new ApplicationStatusSnapshot(jdbcTemplate, fsmProperties);
+        restarted.init();
+
+        Assert.assertTrue(restarted.isCaughtUp());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, restarted.getStatus(moved));
+        Assert.assertEquals(ApplicationStatus.APPROVED, restarted.getStatus(approved));
+        Assert.assertEquals(ApplicationStatus.ENTERED, restarted.getStatus(inserted));
+        Assert.assertEquals(Long.valueOf(applicationRespository.count()),
+                Long.valueOf(restarted.getCounts().values().stream().mapToLong(counts -> counts[0] + counts[1] + counts[2]).sum()));
+
+        restarted.write();
+        FsmStatusSnapshot file = FsmStatusSnapshot.open(Paths.get(fsmProperties.getSnapshot().getFile()));
+        int index = file.indexOf(approved);
+        Assert.assertEquals(ApplicationStatus.APPROVED.ordinal(), file.getState(index));
+        Assert.assertNull(file.getUnit(index));
+        Assert.assertEquals("Y", file.getUnit(file.indexOf(inserted)));
+        Assert.assertTrue(file.getChangeMark() >= jdbcTemplate.queryForObject(
+                "SELECT ID FROM APPLICATION_CHANGE WHERE APPLICATION_ID = ?", Long.class, inserted));
+        // inserts are not published
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM OUTBOX_EVENT WHERE ENTITY_ID = ?", Integer.class, inserted));
+    }
+
+    @Test
+    public void change_committing_after_a_later_one_is_read() throws Exception {
+        Long late = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        Long early = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        statusSnapshot.catchUp();
+        AtomicLong lateChange = new AtomicLong();
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        // takes its change id, then commits after a change with a higher id
+        Future<?> transaction = executor.submit(() -> transactionTemplate.execute(status -> {
+            jdbcTemplate.update("UPDATE APPLICATION SET STATUS = 'ACCEPTED' WHERE ID = ?", late);
+            jdbcTemplate.update("INSERT INTO APPLICATION_CHANGE (APPLICATION_ID, CREATED_DATE) VALUES (?, ?)",
+                    late, Timestamp.valueOf(LocalDateTime.now()));
+            lateChange.set(jdbcTemplate.queryForObject("SELECT MAX(ID) FROM APPLICATION_CHANGE", Long.class));
+            inserted.countDown();
+            try {
+                commit.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }));
+        try {
+            inserted.await();
+            applicationFsmService.sendEventById(early, ApplicationEvent.ACCEPT);
+            statusSnapshot.catchUp();
+            statusSnapshot.write();
+
+            Assert.assertEquals(ApplicationStatus.ACCEPTED, statusSnapshot.getStatus(early));
+            Assert.assertEquals(ApplicationStatus.ENTERED, statusSnapshot.getStatus(late));
+            Assert.assertTrue(FsmStatusSnapshot.open(Paths.get(fsmProperties.getSnapshot().getFile())).getChangeMark() < lateChange.get());
+        } finally {
+            commit.countDown();
+            transaction.get();
+            executor.shutdown();
+        }
+
+        ApplicationStatusSnapshot restarted = new ApplicationStatusSnapshot(jdbcTemplate, fsmProperties);
+        restarted.init();
+        statusSnapshot.catchUp();
+
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, statusSnapshot.getStatus(late));
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, restarted.getStatus(late));
+    }
+
+    @Test
+    public void snapshot_file_is_read_back() throws Exception {
+        Path path = Files.createTempFile("status", ".snapshot");
+        FsmStatusSnapshot.write(path, 7, new long[]{10, 20, 30}, new byte[]{0, 2, 1},
+                new char[]{1, (char) FsmStatusSnapshot.NO_UNIT, 0}, new String[]{"Ł", "X"});
+
+        FsmStatusSnapshot snapshot = FsmStatusSnapshot.open(path);
+
+        Assert.assertEquals(7, snapshot.getChangeMark());
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(1, snapshot.indexOf(20));
+        Assert.assertEquals(-3, snapshot.indexOf(25));
+        Assert.assertEquals(2, snapshot.getState(1));
+        Assert.assertEquals("X", snapshot.getUnit(0));
+        Assert.assertNull(snapshot.getUnit(1));
+        Assert.assertEquals("Ł", snapshot.getUnit(2));
+        Assert.assertEquals(1, snapshot.countOf(2));
+        Assert.assertEquals(1, snapshot.rowOf(2, 0));
+        Assert.assertEquals(0, snapshot.countOf(3));
+        Assert.assertEquals(1, snapshot.firstAfter(0, 10));
+        Files.delete(path);
+    }
+
+    @Test
+    public void file_ahead_of_database_is_rebuilt() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        Path path = Files.createTempFile("status", ".snapshot");
+        // written for another database: claims an application this one does not have
+        FsmStatusSnapshot.write(path, Long.MAX_VALUE, new long[]{Long.MAX_VALUE}, new byte[]{1},
+                new char[]{(char) FsmStatusSnapshot.NO_UNIT}, new String[0]);
+        FsmProperties properties = new FsmProperties();
+        properties.getSnapshot().setEnabled(true);
+        properties.getSnapshot().setFile(path.toString());
+
+        ApplicationStatusSnapshot rebuilt = new ApplicationStatusSnapshot(jdbcTemplate, properties);
+        rebuilt.init();
+
+        Assert.assertNull(rebuilt.getStatus(Long.MAX_VALUE));
+        Assert.assertEquals(ApplicationStatus.ENTERED, rebuilt.getStatus(id));
+        Files.delete(path);
+    }
+
+    @Test
+    public void ids_of_status_merge_file_and_changes() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(applicationRespository.save(new Application("A" + i, "X", BigDecimal.TEN)).getId());
+        }
+        applicationFsmService.sendEventById(ids.get(1), ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEventById(ids.get(3), ApplicationEvent.ACCEPT);
+        statusSnapshot.catchUp();
+        statusSnapshot.write();
+
+        // after the write: one accepted row leaves, another joins
+        applicationFsmService.sendEventById(ids.get(1), ApplicationEvent.APPROVE);
+        applicationFsmService.sendEventById(ids.get(4), ApplicationEvent.ACCEPT);
+        statusSnapshot.catchUp();
+
+        Assert.assertEquals(Arrays.asList(ids.get(3), ids.get(4)), statusSnapshot.getIds(ApplicationStatus.ACCEPTED, ids.get(0) - 1, 10));
+        Assert.assertEquals(Collections.singletonList(ids.get(3)), statusSnapshot.getIds(ApplicationStatus.ACCEPTED, ids.get(0) - 1, 1));
+        Assert.assertEquals(Collections.singletonList(ids.get(4)), statusSnapshot.getIds(ApplicationStatus.ACCEPTED, ids.get(3), 10));
+        Assert.assertEquals(Collections.singletonList(ids.get(1)), statusSnapshot.getIds(ApplicationStatus.APPROVED, ids.get(0) - 1, 10));
+        Assert.assertEquals(Arrays.asList(ids.get(0), ids.get(2), ids.get(5)), statusSnapshot.getIds(ApplicationStatus.ENTERED, ids.get(0) - 1, 10)
+                .stream().filter(ids::contains).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,168 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.BatchStateMachinePersist;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "fsm.batch.chunk-size=2")
+@Transactional
+public class BatchSendEventTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private FailingPersist failingPersist;
+
+    /**
+     * Fails the next {@code failures} writes of many entities, before they reach the database.
+     */
+    static class FailingPersist implements BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application> {
+
+        private final BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application> persist;
+
+        private int failures;
+
+        FailingPersist(BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application> persist) {
+            this.persist = persist;
+        }
+
+        @Override
+        public Collection<Application> writeAll(ApplicationStatus state, Collection<Application> entities) throws Exception {
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("Write to " + state + " failed");
+            }
+            return persist.writeAll(state, entities);
+        }
+
+        @Override
+        public void write(StateMachineContext<ApplicationStatus, ApplicationEvent> context, Application entity) throws Exception {
+            persist.write(context, entity);
+        }
+
+        @Override
+        public StateMachineContext<ApplicationStatus, ApplicationEvent> read(Application entity) throws Exception {
+            return persist.read(entity);
+        }
+    }
+
+    @TestConfiguration
+    static class FailingPersistConfig {
+        @Bean
+        @Primary
+        public FailingPersist failingPersist(
+                @Qualifier("applicationFsmPersist") BatchStateMachinePersist<ApplicationStatus, ApplicationEvent, Application> persist) {
+            return new FailingPersist(persist);
+        }
+    }
+
+    @Test
+    public void approve_batch_reports_per_item_results() throws FsmTransitionException {
+        Application approved = accepted(new Application("A", "X", BigDecimal.TEN));
+        Application zeroAmount = accepted(new Application("B", "X", BigDecimal.ZERO));
+        Application entered = applicationRespository.save(new Application("C", "X", BigDecimal.TEN));
+        Application alsoApproved = accepted(new Application("D", "X", BigDecimal.ONE));
+
+        List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> results =
+                applicationFsmService.sendEvents(Arrays.asList(approved, zeroAmount, entered, alsoApproved), ApplicationEvent.APPROVE);
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, results.get(0).getOutcome());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, results.get(0).getSource());
+        Assert.assertEquals(ApplicationStatus.APPROVED, results.get(0).getTarget());
+        Assert.assertEquals(TransitionOutcome.REJECTED, results.get(1).getOutcome());
+        Assert.assertEquals("Cannot approve with incorrect amount", results.get(1).getMessage());
+        Assert.assertEquals(TransitionOutcome.REJECTED, results.get(2).getOutcome());
+        Assert.assertEquals(ApplicationStatus.ENTERED, results.get(2).getSource());
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, results.get(3).getOutcome());
+
+        entityManager.flush();
+        entityManager.clear();
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.getOne(approved.getId()).getStatus());
+        Assert.assertEquals("APPROVED: A", applicationRespository.getOne(approved.getId()).getName());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.getOne(zeroAmount.getId()).getStatus());
+        Assert.assertEquals(ApplicationStatus.ENTERED, applicationRespository.getOne(entered.getId()).getStatus());
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.getOne(alsoApproved.getId()).getStatus());
+    }
+
+    @Test
+    public void accept_batch_spans_many_chunks() {
+        List<Application> applications = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            applications.add(applicationRespository.save(new Application("A" + i, "X", BigDecimal.TEN)));
+        }
+
+        List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> results =
+                applicationFsmService.sendEvents(applications, ApplicationEvent.ACCEPT);
+
+        Assert.assertEquals(7, results.size());
+        for (TransitionResult<ApplicationStatus, ApplicationEvent, Application> result : results) {
+            Assert.assertTrue(result.toString(), result.isAccepted());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        for (Application application : applications) {
+            Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.getOne(application.getId()).getStatus());
+        }
+    }
+
+    private Application accepted(Application application) throws FsmTransitionException {
+        return applicationFsmService.sendEvent(applicationRespository.save(application), ApplicationEvent.ACCEPT);
+    }
+
+    @Test
+    public void failed_write_fails_only_its_chunk() {
+        List<Application> applications = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            applications.add(applicationRespository.save(new Application("A" + i, "X", BigDecimal.TEN)));
+        }
+        failingPersist.failures = 1;
+
+        List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> results =
+                applicationFsmService.sendEvents(applications, ApplicationEvent.ACCEPT);
+
+        Assert.assertEquals(TransitionOutcome.FAILED, results.get(0).getOutcome());
+        Assert.assertEquals("Write to ACCEPTED failed", results.get(0).getMessage());
+        Assert.assertEquals(TransitionOutcome.FAILED, results.get(1).getOutcome());
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, results.get(2).getOutcome());
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, results.get(3).getOutcome());
+
+        entityManager.flush();
+        entityManager.clear();
+        Assert.assertEquals(ApplicationStatus.ENTERED, applicationRespository.getOne(applications.get(0).getId()).getStatus());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.getOne(applications.get(3).getId()).getStatus());
+    }
+}
@@ -0,0 +1,98 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmConflictException;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.FsmRetryPolicy;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "fsm.persist.mode=compare-and-set")
+@Transactional
+public class CompareAndSetPersistTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    public void stale_entity_raises_conflict_and_is_reverted() throws FsmTransitionException {
+        Application application = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+        changeStatusBehindTheScenes(application, ApplicationStatus.ENTERED);
+
+        try {
+            applicationFsmService.sendEvent(application, ApplicationEvent.APPROVE);
+            Assert.fail("Stale entity must not be approved");
+        } catch (FsmConflictException e) {
+            Assert.assertEquals(ApplicationStatus.ENTERED, application.getStatus());
+            Assert.assertEquals("A", application.getName());
+        }
+    }
+
+    @Test
+    public void retry_re_reads_entity_before_firing_again() {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+        changeStatusBehindTheScenes(application, ApplicationStatus.ACCEPTED);
+
+        try {
+            applicationFsmService.sendEvent(application, ApplicationEvent.ACCEPT, FsmRetryPolicy.of(3, Duration.ZERO));
+            Assert.fail("Already accepted entity must not be accepted again");
+        } catch (FsmTransitionException e) {
+            // second attempt saw the committed state and was refused by the machine, not by the database
+            Assert.assertFalse(e instanceof FsmConflictException);
+            Assert.assertEquals(ApplicationStatus.ACCEPTED, application.getStatus());
+        }
+    }
+
+    @Test
+    public void batch_reports_conflicts_per_item() throws FsmTransitionException {
+        Application stale = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+        Application fresh = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("B", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+        changeStatusBehindTheScenes(stale, ApplicationStatus.ENTERED);
+
+        List<TransitionResult<ApplicationStatus, ApplicationEvent, Application>> results =
+                applicationFsmService.sendEvents(Arrays.asList(stale, fresh), ApplicationEvent.APPROVE);
+
+        Assert.assertEquals(TransitionOutcome.CONFLICT, results.get(0).getOutcome());
+        Assert.assertEquals(ApplicationStatus.ENTERED, stale.getStatus());
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, results.get(1).getOutcome());
+        Assert.assertEquals(ApplicationStatus.APPROVED, fresh.getStatus());
+    }
+
+    /**
+     * Simulates another node: the row changes, the managed entity does not.
+     */
+    private void changeStatusBehindTheScenes(Application application, ApplicationStatus status) {
+        entityManager.flush();
+        entityManager.createNativeQuery("UPDATE APPLICATION SET STATUS=:status WHERE ID=:id")
+                .setParameter("status", status.name())
+                .setParameter("id", application.getId())
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,105 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.FsmEngineType;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.service.AbstractStateMachineService;
+
+import javax.transaction.Transactional;
+import java.util.UUID;
+
+/**
+ * Runs the {@link ApplicationFsmTests} scenarios against the compiled engine.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "fsm.engines.applicationFsmFactory=compiled")
+@Transactional
+public class CompiledEngineApplicationFsmTests extends ApplicationFsmTests {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Test
+    public void machine_that_cannot_be_compiled_fails_at_startup() {
+        StaticApplicationContext context = new StaticApplicationContext(applicationContext);
+        context.getBeanFactory().registerSingleton("choiceFsmFactory", new ChoiceFsmFactory());
+        FsmProperties fsmProperties = new FsmProperties();
+        fsmProperties.getEngines().put("choiceFsmFactory", FsmEngineType.COMPILED);
+
+        try {
+            new ChoiceFsmService(context, fsmProperties).init();
+            Assert.fail("Configuration error expected");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("fsm.engines.choiceFsmFactory=compiled"));
+        }
+    }
+
+    private static class ChoiceFsmService extends AbstractStateMachineService<ApplicationStatus, ApplicationEvent, Application> {
+
+        ChoiceFsmService(ApplicationContext applicationContext, FsmProperties fsmProperties) {
+            super(applicationContext, null, null, null, fsmProperties);
+        }
+
+        @Override
+        public void init() {
+            super.init();
+        }
+
+        @Override
+        protected String getFsmFactoryName() {
+            return "choiceFsmFactory";
+        }
+
+        @Override
+        protected Class<Application> getEntityClass() {
+            return Application.class;
+        }
+    }
+
+    private static class ChoiceFsmFactory implements StateMachineFactory<ApplicationStatus, ApplicationEvent> {
+
+        @Override
+        public StateMachine<ApplicationStatus, ApplicationEvent> getStateMachine() {
+            try {
+                StateMachineBuilder.Builder<ApplicationStatus, ApplicationEvent> builder = StateMachineBuilder.builder();
+                builder.configureStates()
+                        .withStates()
+                        .initial(ApplicationStatus.ENTERED)
+                        .choice(ApplicationStatus.ACCEPTED)
+                        .state(ApplicationStatus.APPROVED);
+                builder.configureTransitions()
+                        .withExternal().event(ApplicationEvent.ACCEPT)
+                        .source(ApplicationStatus.ENTERED).target(ApplicationStatus.ACCEPTED)
+                        .and()
+                        .withChoice()
+                        .source(ApplicationStatus.ACCEPTED).last(ApplicationStatus.APPROVED);
+                return builder.build();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public StateMachine<ApplicationStatus, ApplicationEvent> getStateMachine(String machineId) {
+            return getStateMachine();
+        }
+
+        @Override
+        public StateMachine<ApplicationStatus, ApplicationEvent> getStateMachine(UUID uuid) {
+            return getStateMachine();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.domain.TransitionHistory;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.FsmAuditOverflow;
+import pl.arimr.statemachinedemo.fsm.FsmAuditLog;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.repositories.TransitionHistoryRepository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class FsmAuditLogTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private TransitionHistoryRepository transitionHistoryRepository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private FsmAuditLog fsmAuditLog;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void committed_transitions_and_refusals_are_recorded() throws Exception {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.ZERO));
+        applicationFsmService.sendEventById(application.getId(), ApplicationEvent.ACCEPT);
+        transactionTemplate.execute(status -> applicationFsmService.trySendEvent(
+                applicationRespository.findById(application.getId()).get(), ApplicationEvent.APPROVE));
+
+        Assert.assertTrue(fsmAuditLog.flush(Duration.ofSeconds(10)));
+        List<TransitionHistory> history = history(application);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals("ENTERED", history.get(0).getFromState());
+        Assert.assertEquals("ACCEPTED", history.get(0).getToState());
+        Assert.assertEquals("ACCEPT", history.get(0).getEvent());
+        Assert.assertEquals("ACCEPTED", history.get(0).getOutcome());
+        Assert.assertNotNull(history.get(0).getCreatedDate());
+        Assert.assertEquals("ACCEPTED", history.get(1).getFromState());
+        Assert.assertNull(history.get(1).getToState());
+        Assert.assertEquals("REJECTED", history.get(1).getOutcome());
+    }
+
+    @Test
+    public void rolled_back_transition_is_not_recorded() throws Exception {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+        transactionTemplate.execute(status -> {
+            TransitionResult<?, ?, ?> result = applicationFsmService.trySendEvent(
+                    applicationRespository.findById(application.getId()).get(), ApplicationEvent.ACCEPT);
+            status.setRollbackOnly();
+            return result;
+        });
+
+        Assert.assertTrue(fsmAuditLog.flush(Duration.ofSeconds(10)));
+        Assert.assertTrue(history(application).isEmpty());
+    }
+
+    @Test
+    public void full_buffer_drops_when_configured() {
+        FsmProperties properties = new FsmProperties();
+        properties.getAudit().setCapacity(1);
+        properties.getAudit().setOverflow(FsmAuditOverflow.DROP);
+        // never started, so nothing leaves the buffer
+        FsmAuditLog auditLog = new FsmAuditLog(jdbcTemplate, properties);
+        Application application = new Application("A", "X", BigDecimal.TEN);
+
+        for (int i = 0; i < 3; i++) {
+            auditLog.record("applicationFsmFactory", null, TransitionResult.rejected(application, ApplicationEvent.APPROVE, null, "refused"));
+        }
+
+        Assert.assertEquals(1, auditLog.getBufferedCount());
+        Assert.assertEquals(2, auditLog.getDroppedCount());
+    }
+
+    @Test
+    public void full_buffer_drops_after_blocking() {
+        FsmProperties properties = new FsmProperties();
+        properties.getAudit().setCapacity(1);
+        properties.getAudit().setOverflow(FsmAuditOverflow.BLOCK);
+        properties.getAudit().setOfferTimeout(Duration.ofMillis(50));
+        FsmAuditLog auditLog = new FsmAuditLog(jdbcTemplate, properties);
+        Application application = new Application("A", "X", BigDecimal.TEN);
+
+        for (int i = 0; i < 2; i++) {
+            auditLog.record("applicationFsmFactory", null, TransitionResult.rejected(application, ApplicationEvent.APPROVE, null, "refused"));
+        }
+
+        Assert.assertEquals(1, auditLog.getBufferedCount());
+        Assert.assertEquals(1, auditLog.getDroppedCount());
+    }
+
+    private List<TransitionHistory> history(Application application) {
+        return transitionHistoryRepository.findByMachineAndEntityIdOrderById("applicationFsmFactory", application.getId());
+    }
+}
@@ -0,0 +1,57 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.FsmContextCache;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import java.math.BigDecimal;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class FsmContextCacheTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private FsmContextCache<ApplicationStatus, ApplicationEvent> applicationFsmContextCache;
+
+    @Test
+    public void restores_use_shared_contexts() throws FsmTransitionException {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        long hits = applicationFsmContextCache.getHitCount();
+
+        Application approved = applicationFsmService.sendEventById(id, ApplicationEvent.APPROVE);
+
+        Assert.assertEquals(ApplicationStatus.APPROVED, approved.getStatus());
+        Assert.assertEquals("APPROVED: A", approved.getName());
+        Assert.assertTrue(applicationFsmContextCache.getHitCount() > hits);
+    }
+
+    @Test
+    public void one_context_per_state() {
+        FsmContextCache<ApplicationStatus, ApplicationEvent> cache = new FsmContextCache<>("test", ApplicationStatus.class);
+        StateMachineContext<ApplicationStatus, ApplicationEvent> entered = cache.context(ApplicationStatus.ENTERED);
+
+        Assert.assertSame(entered, cache.context(ApplicationStatus.ENTERED));
+        Assert.assertEquals(ApplicationStatus.ENTERED, entered.getState());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, cache.context(ApplicationStatus.ACCEPTED).getState());
+        Assert.assertTrue(entered.getExtendedState().getVariables().isEmpty());
+        Assert.assertEquals(3, cache.getHitCount());
+    }
+}
@@ -0,0 +1,158 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.FsmBackpressure;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmDispatcher;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+import pl.arimr.statemachinedemo.service.FsmEventDispatcher;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "fsm.dispatcher.workers=4")
+public class FsmEventDispatcherTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmDispatcher applicationFsmDispatcher;
+
+    @Test
+    public void events_of_one_entity_keep_submission_order() throws Exception {
+        List<CompletableFuture<Application>> approvals = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Long id = applicationRespository.save(new Application("A" + i, "X", BigDecimal.TEN)).getId();
+            // approve is only valid after accept, so it fails if it overtakes it
+            applicationFsmDispatcher.dispatch(id, ApplicationEvent.ACCEPT);
+            approvals.add(applicationFsmDispatcher.dispatch(id, ApplicationEvent.APPROVE));
+        }
+
+        for (CompletableFuture<Application> approval : approvals) {
+            Application application = approval.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(ApplicationStatus.APPROVED, application.getStatus());
+            Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(application.getId()).get().getStatus());
+        }
+    }
+
+    @Test
+    public void refused_transition_completes_exceptionally() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        try {
+            applicationFsmDispatcher.dispatch(id, ApplicationEvent.APPROVE).get(10, TimeUnit.SECONDS);
+            Assert.fail("Approve of entered application must be refused");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FsmTransitionException);
+        }
+        Assert.assertEquals(ApplicationStatus.ENTERED, applicationRespository.findById(id).get().getStatus());
+    }
+
+    @Test
+    public void full_stripe_rejects_when_configured() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ApplicationFsmService service = Mockito.mock(ApplicationFsmService.class);
+        Mockito.when(service.sendEventById(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        FsmProperties.Dispatcher properties = new FsmProperties.Dispatcher();
+        properties.setWorkers(1);
+        properties.setQueueCapacity(1);
+        properties.setBackpressure(FsmBackpressure.REJECT);
+        FsmEventDispatcher<ApplicationStatus, ApplicationEvent, Application> dispatcher =
+                new FsmEventDispatcher<ApplicationStatus, ApplicationEvent, Application>("test", service, properties) {
+                };
+
+        try {
+            CompletableFuture<Application> running = dispatcher.dispatch(1L, ApplicationEvent.ACCEPT);
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<Application> queued = dispatcher.dispatch(1L, ApplicationEvent.APPROVE);
+            CompletableFuture<Application> rejected = dispatcher.dispatch(1L, ApplicationEvent.DISCARD);
+
+            Assert.assertEquals(1, dispatcher.getQueueDepth());
+            Assert.assertTrue(rejected.isCompletedExceptionally());
+            try {
+                rejected.get();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            running.get(10, TimeUnit.SECONDS);
+            queued.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void error_completes_exceptionally_and_shutdown_waits_for_queue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Application approved = new Application("A", "X", BigDecimal.TEN);
+        ApplicationFsmService service = Mockito.mock(ApplicationFsmService.class);
+        Mockito.when(service.sendEventById(1L, ApplicationEvent.ACCEPT)).thenThrow(new AssertionError("Broken guard"));
+        Mockito.when(service.sendEventById(1L, ApplicationEvent.APPROVE)).thenAnswer(invocation -> {
+            release.await();
+            return approved;
+        });
+        FsmProperties.Dispatcher properties = new FsmProperties.Dispatcher();
+        properties.setWorkers(1);
+        FsmEventDispatcher<ApplicationStatus, ApplicationEvent, Application> dispatcher =
+                new FsmEventDispatcher<ApplicationStatus, ApplicationEvent, Application>("test", service, properties) {
+                };
+
+        CompletableFuture<Application> failed = dispatcher.dispatch(1L, ApplicationEvent.ACCEPT);
+        CompletableFuture<Application> queued = dispatcher.dispatch(1L, ApplicationEvent.APPROVE);
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            Assert.fail("Error must complete the future");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        }
+
+        new Thread(() -> {
+            sleep(200);
+            release.countDown();
+        }).start();
+        dispatcher.shutdown();
+        Assert.assertSame(approved, queued.getNow(null));
+
+        CompletableFuture<Application> late = dispatcher.dispatch(1L, ApplicationEvent.APPROVE);
+        try {
+            late.get(1, TimeUnit.SECONDS);
+            Assert.fail("Event dispatched after shutdown must be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.enums.TransitionOutcome;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.FsmIdempotencyStore;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.TransitionResult;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class FsmIdempotencyTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> idempotencyStore;
+
+    @Autowired
+    private FsmProperties fsmProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void redelivered_event_is_answered_from_first_delivery() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        String key = UUID.randomUUID().toString();
+
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, key).getStatus());
+        applicationFsmService.sendEventById(id, ApplicationEvent.APPROVE);
+        // would be rejected in APPROVED if sent again
+        Application application = applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, key);
+
+        Assert.assertEquals(ApplicationStatus.APPROVED, application.getStatus());
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(id).get().getStatus());
+        Assert.assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM PROCESSED_EVENT WHERE EVENT_KEY = ?", Integer.class, key));
+    }
+
+    @Test
+    public void redelivered_rejection_is_rejected_again() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        String key = UUID.randomUUID().toString();
+        Application application = applicationRespository.findById(id).get();
+
+        TransitionResult<ApplicationStatus, ApplicationEvent, Application> result =
+                applicationFsmService.trySendEvent(application, ApplicationEvent.APPROVE, key);
+        Assert.assertEquals(TransitionOutcome.REJECTED, result.getOutcome());
+
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        try {
+            applicationFsmService.sendEventById(id, ApplicationEvent.APPROVE, key);
+            Assert.fail("Stored rejection expected");
+        } catch (FsmTransitionException e) {
+            Assert.assertEquals(result.getMessage(), e.getMessage());
+            Assert.assertTrue("Stored refusal is thrown like the first one", e.getStackTrace().length > 0);
+        }
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(id).get().getStatus());
+    }
+
+    @Test
+    public void events_without_key_or_with_other_keys_are_processed() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, UUID.randomUUID().toString());
+        applicationFsmService.sendEventById(id, ApplicationEvent.DISCARD, null);
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, UUID.randomUUID().toString());
+
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(id).get().getStatus());
+    }
+
+    @Test
+    public void keys_are_found_in_table_by_other_nodes() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        String key = UUID.randomUUID().toString();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, key);
+
+        FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> otherNode = new FsmIdempotencyStore<>("applicationFsmFactory",
+                ApplicationStatus::valueOf, ApplicationEvent::valueOf, jdbcTemplate, fsmProperties.getIdempotency());
+        TransitionResult<ApplicationStatus, ApplicationEvent, ?> stored = otherNode.find(key);
+
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, stored.getOutcome());
+        Assert.assertEquals(ApplicationStatus.ENTERED, stored.getSource());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, stored.getTarget());
+        Assert.assertEquals(1, otherNode.size());
+        Assert.assertNull(otherNode.find(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void keys_older_than_retention_are_purged() {
+        String key = UUID.randomUUID().toString();
+        jdbcTemplate.update("INSERT INTO PROCESSED_EVENT (EVENT_KEY, MACHINE, ENTITY_ID, EVENT, OUTCOME, FROM_STATE, TO_STATE, CREATED_DATE) "
+                        + "VALUES (?, 'applicationFsmFactory', 1, 'ACCEPT', 'ACCEPTED', 'ENTERED', 'ACCEPTED', ?)",
+                key, Timestamp.valueOf(LocalDateTime.now().minus(fsmProperties.getIdempotency().getRetention()).minusHours(1)));
+
+        Assert.assertTrue(idempotencyStore.purge() >= 1);
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM PROCESSED_EVENT WHERE EVENT_KEY = ?", Integer.class, key));
+    }
+
+    @Test
+    public void key_longer_than_column_is_rejected_before_sending() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        String key = new String(new char[FsmIdempotencyStore.KEY_LENGTH + 1]).replace('\0', 'k');
+
+        try {
+            applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, key);
+            Assert.fail("Too long key expected to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(ApplicationStatus.ENTERED, applicationRespository.findById(id).get().getStatus());
+    }
+
+    @Test
+    public void keys_are_scoped_to_machine_type() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        String key = UUID.randomUUID().toString();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT, key);
+
+        FsmIdempotencyStore<ApplicationStatus, ApplicationEvent> otherMachine = new FsmIdempotencyStore<>("otherFsmFactory",
+                ApplicationStatus::valueOf, ApplicationEvent::valueOf, jdbcTemplate, fsmProperties.getIdempotency());
+        Assert.assertNull(otherMachine.find(key));
+        Assert.assertTrue(otherMachine.record(key, id, TransitionResult.rejected(null, ApplicationEvent.ACCEPT, ApplicationStatus.ENTERED, "other")));
+
+        Assert.assertEquals(TransitionOutcome.REJECTED, otherMachine.find(key).getOutcome());
+        Assert.assertEquals(TransitionOutcome.ACCEPTED, idempotencyStore.find(key).getOutcome());
+        Assert.assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM PROCESSED_EVENT WHERE EVENT_KEY = ?", Integer.class, key));
+    }
+
+    @Test
+    public void duplicate_key_leaves_transaction_usable() {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        String key = UUID.randomUUID().toString();
+        TransitionResult<ApplicationStatus, ApplicationEvent, Object> rejected =
+                TransitionResult.rejected(null, ApplicationEvent.APPROVE, ApplicationStatus.ENTERED, "Cannot approve");
+        Assert.assertTrue(idempotencyStore.record(key, id, rejected));
+
+        boolean recorded = transactionTemplate.execute(status -> {
+            jdbcTemplate.update("UPDATE APPLICATION SET NAME = 'B' WHERE ID = ?", id);
+            return idempotencyStore.record(key, id, rejected);
+        });
+
+        Assert.assertFalse(recorded);
+        Assert.assertEquals("B", applicationRespository.findById(id).get().getName());
+    }
+}
@@ -0,0 +1,87 @@
+package pl.arimr.statemachinedemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.FsmMetrics;
+import pl.arimr.statemachinedemo.fsm.TransitionDefinition;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class FsmMetricsTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void transition_stages_are_timed() throws FsmTransitionException {
+        long guards = timer("guard", "ENTERED", "ACCEPT");
+        long persists = timer("persist", "ENTERED", "ACCEPT");
+        long acquisitions = timer("acquire", "ENTERED", "ACCEPT");
+
+        applicationFsmService.sendEvent(applicationRespository.save(new Application("A", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+
+        Assert.assertEquals(guards + 1, timer("guard", "ENTERED", "ACCEPT"));
+        Assert.assertEquals(persists + 1, timer("persist", "ENTERED", "ACCEPT"));
+        Assert.assertEquals(acquisitions + 1, timer("acquire", "ENTERED", "ACCEPT"));
+    }
+
+    @Test
+    public void outcomes_are_counted() throws FsmTransitionException {
+        double accepted = counter("accepted", "ENTERED", "ACCEPT");
+        double rejected = counter("rejected", "ACCEPTED", "APPROVE");
+        double notAccepted = counter("not_accepted", "ENTERED", "DISCARD");
+
+        Application application = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.ZERO)), ApplicationEvent.ACCEPT);
+        applicationFsmService.trySendEvent(application, ApplicationEvent.APPROVE);
+        applicationFsmService.trySendEvent(applicationRespository.save(new Application("B", "X", BigDecimal.TEN)), ApplicationEvent.DISCARD);
+
+        Assert.assertEquals(accepted + 1, counter("accepted", "ENTERED", "ACCEPT"), 0.0);
+        Assert.assertEquals(rejected + 1, counter("rejected", "ACCEPTED", "APPROVE"), 0.0);
+        Assert.assertEquals(notAccepted + 1, counter("not_accepted", "ENTERED", "DISCARD"), 0.0);
+        Assert.assertEquals(0.0, meterRegistry.get("fsm.transitions.in-flight").gauge().value(), 0.0);
+    }
+
+    @Test
+    public void noop_metrics_leave_definitions_unwrapped() {
+        List<TransitionDefinition<Object, Object>> definitions = Collections.emptyList();
+        Assert.assertSame(definitions, FsmMetrics.NOOP.instrument("applicationFsmFactory", definitions));
+        Assert.assertEquals(0L, FsmMetrics.NOOP.start());
+    }
+
+    private long timer(String stage, String source, String event) {
+        Timer timer = meterRegistry.find("fsm.transition.stage")
+                .tags("machine", "applicationFsmFactory", "stage", stage, "source", source, "event", event).timer();
+        return timer != null ? timer.count() : 0L;
+    }
+
+    private double counter(String outcome, String source, String event) {
+        Counter counter = meterRegistry.find("fsm.events")
+                .tags("machine", "applicationFsmFactory", "outcome", outcome, "source", source, "event", event).counter();
+        return counter != null ? counter.count() : 0.0;
+    }
+}
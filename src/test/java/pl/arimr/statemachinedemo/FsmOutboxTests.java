@@ -0,0 +1,204 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.FsmOutboxPublisher;
+import pl.arimr.statemachinedemo.fsm.FsmOutboxRelay;
+import pl.arimr.statemachinedemo.fsm.OutboxMessage;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * The scheduled relay is slowed down so that only the tests publish.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.outbox.poll-interval=1h", "fsm.outbox.claim-timeout=200ms"})
+public class FsmOutboxTests {
+
+    @TestConfiguration
+    static class InMemoryPublisherConfig {
+        @Bean
+        public InMemoryPublisher inMemoryPublisher() {
+            return new InMemoryPublisher();
+        }
+    }
+
+    static class InMemoryPublisher implements FsmOutboxPublisher {
+
+        final List<OutboxMessage> published = new CopyOnWriteArrayList<>();
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void publish(List<OutboxMessage> messages) {
+            if (failures.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+                throw new IllegalStateException("broker unavailable");
+            }
+            published.addAll(messages);
+        }
+
+        List<OutboxMessage> of(Long entityId) {
+            return published.stream().filter(message -> entityId.equals(message.getEntityId())).collect(Collectors.toList());
+        }
+    }
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private FsmOutboxRelay relay;
+
+    @Autowired
+    private InMemoryPublisher publisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private FsmProperties fsmProperties;
+
+    @Before
+    public void setUp() {
+        drain();
+        publisher.published.clear();
+    }
+
+    @Test
+    public void committed_transitions_are_published_in_order() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEventById(id, ApplicationEvent.APPROVE);
+
+        drain();
+
+        List<OutboxMessage> messages = publisher.of(id);
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals("ACCEPT", messages.get(0).getEvent());
+        Assert.assertEquals("ENTERED", messages.get(0).getFromState());
+        Assert.assertEquals("ACCEPTED", messages.get(0).getToState());
+        Assert.assertEquals("applicationFsmFactory", messages.get(0).getMachine());
+        Assert.assertEquals("APPROVE", messages.get(1).getEvent());
+        Assert.assertTrue(messages.get(0).getId() < messages.get(1).getId());
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM OUTBOX_EVENT WHERE ENTITY_ID = ? AND PUBLISHED_DATE IS NULL", Integer.class, id));
+    }
+
+    @Test
+    public void rolled_back_transition_is_not_published() {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        transactionTemplate.execute(status -> {
+            applicationFsmService.trySendEvent(applicationRespository.findById(id).get(), ApplicationEvent.ACCEPT);
+            status.setRollbackOnly();
+            return null;
+        });
+
+        drain();
+
+        Assert.assertTrue(publisher.of(id).isEmpty());
+    }
+
+    @Test
+    public void failed_batch_is_retried_after_claim_timeout() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        publisher.failures.set(1);
+
+        Assert.assertEquals(0, relay.relay());
+        Assert.assertEquals(0, relay.relay());
+        Thread.sleep(300);
+        drain();
+
+        List<OutboxMessage> messages = publisher.of(id);
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(1, messages.get(0).getAttempts());
+    }
+
+    @Test
+    public void concurrent_relays_publish_every_message_once() throws Exception {
+        List<Application> applications = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            applications.add(applicationRespository.save(new Application("A" + i, "X", BigDecimal.TEN)));
+        }
+        transactionTemplate.execute(status -> applicationFsmService.sendEvents(applications, ApplicationEvent.ACCEPT));
+
+        ExecutorService relays = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                runs.add(relays.submit(() -> {
+                    while (relay.relay() > 0) {
+                        // keep claiming
+                    }
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            relays.shutdown();
+        }
+        drain();
+
+        Set<Long> ids = new HashSet<>();
+        for (OutboxMessage message : publisher.published) {
+            Assert.assertTrue("published twice: " + message, ids.add(message.getId()));
+        }
+        for (Application application : applications) {
+            Assert.assertEquals(1, publisher.of(application.getId()).size());
+        }
+    }
+
+    @Test
+    public void published_rows_older_than_retention_are_purged() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEventById(id, ApplicationEvent.APPROVE);
+        drain();
+        Long accepted = jdbcTemplate.queryForObject("SELECT MIN(ID) FROM OUTBOX_EVENT WHERE ENTITY_ID = ?", Long.class, id);
+        jdbcTemplate.update("UPDATE OUTBOX_EVENT SET PUBLISHED_DATE = ? WHERE ID = ?",
+                Timestamp.valueOf(LocalDateTime.now().minus(fsmProperties.getOutbox().getRetention()).minusHours(1)), accepted);
+
+        Assert.assertTrue(relay.purge() >= 1);
+
+        Assert.assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM OUTBOX_EVENT WHERE ENTITY_ID = ?", Integer.class, id));
+    }
+
+    private void drain() {
+        while (relay.relay() > 0) {
+            // publish everything committed so far
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.EntityFieldAccessor;
+import pl.arimr.statemachinedemo.fsm.FsmStateAccessor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+public class FsmStateAccessorTests {
+
+    private final FsmStateAccessor<Application, ApplicationStatus> accessor = FsmStateAccessor.of(Application.class);
+
+    @Test
+    public void accessor_reads_and_writes_private_status() {
+        Application application = new Application("A", "X", BigDecimal.TEN);
+        accessor.set(application, ApplicationStatus.APPROVED);
+        Assert.assertEquals(ApplicationStatus.APPROVED, application.getStatus());
+        Assert.assertEquals(ApplicationStatus.APPROVED, accessor.get(application));
+        Assert.assertSame(accessor, FsmStateAccessor.of(Application.class));
+    }
+
+    @Test
+    public void field_accessor_reads_and_writes_private_deadline() {
+        EntityFieldAccessor<Application, LocalDateTime> deadline = EntityFieldAccessor.of(Application.class, "deadline");
+        Application application = new Application("A", "X", BigDecimal.TEN);
+        LocalDateTime now = LocalDateTime.now();
+        deadline.set(application, now);
+        Assert.assertEquals(now, application.getDeadline());
+        Assert.assertEquals("deadline", deadline.getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void class_without_state_field_is_refused() {
+        FsmStateAccessor.of(String.class);
+    }
+}
@@ -0,0 +1,180 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.HashedTimingWheel;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+import pl.arimr.statemachinedemo.service.ApplicationTimeoutService;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Time only moves when a test advances the clock, and the scheduled tick is slowed down so that only the tests
+ * fire timeouts.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.timeouts.applicationFsmFactory.ACCEPTED=2d", "fsm.timers.tick-duration=1h",
+        "fsm.timers.enabled=true", "fsm.persist.mode=compare-and-set"})
+public class FsmTimeoutTests {
+
+    @TestConfiguration
+    static class ClockConfig {
+        @Bean
+        @Primary
+        public MutableClock mutableClock() {
+            return new MutableClock();
+        }
+    }
+
+    static class MutableClock extends Clock {
+
+        private volatile Instant instant = Instant.parse("2018-07-01T10:00:00Z");
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.systemDefault();
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private ApplicationTimeoutService timeoutService;
+
+    @Autowired
+    private MutableClock clock;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void accepted_application_is_discarded_after_timeout() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        Assert.assertEquals(LocalDateTime.now(clock).plusDays(2), applicationRespository.findById(id).get().getDeadline());
+
+        clock.advance(Duration.ofDays(1));
+        timeoutService.fireDue();
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(id).get().getStatus());
+
+        clock.advance(Duration.ofDays(1).plusHours(1));
+        Assert.assertTrue(timeoutService.fireDue() >= 1);
+        Application application = applicationRespository.findById(id).get();
+        Assert.assertEquals(ApplicationStatus.ENTERED, application.getStatus());
+        Assert.assertNull(application.getDeadline());
+    }
+
+    @Test
+    public void application_leaving_state_keeps_its_new_state() throws Exception {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        applicationFsmService.sendEventById(id, ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEventById(id, ApplicationEvent.APPROVE);
+        Assert.assertNull(applicationRespository.findById(id).get().getDeadline());
+
+        clock.advance(Duration.ofDays(3));
+        timeoutService.fireDue();
+
+        Assert.assertEquals(ApplicationStatus.APPROVED, applicationRespository.findById(id).get().getStatus());
+    }
+
+    @Test
+    public void deadlines_are_rebuilt_from_table() {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        // written behind the timing wheel's back, as if by a previous run
+        jdbcTemplate.update("UPDATE APPLICATION SET STATUS = 'ACCEPTED', DEADLINE = ? WHERE ID = ?",
+                Timestamp.valueOf(LocalDateTime.now(clock).plusMinutes(5)), id);
+
+        clock.advance(Duration.ofHours(2));
+        timeoutService.fireDue();
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, applicationRespository.findById(id).get().getStatus());
+
+        timeoutService.rebuild();
+        clock.advance(Duration.ofHours(1));
+        Assert.assertTrue(timeoutService.fireDue() >= 1);
+        Assert.assertEquals(ApplicationStatus.ENTERED, applicationRespository.findById(id).get().getStatus());
+    }
+
+    @Test
+    public void deadline_that_cannot_fire_is_cleared() {
+        Long id = applicationRespository.save(new Application("A", "X", BigDecimal.TEN)).getId();
+        // APPROVED has no timeout, e.g. the timeout was removed from the configuration
+        jdbcTemplate.update("UPDATE APPLICATION SET STATUS = 'APPROVED', DEADLINE = ? WHERE ID = ?",
+                Timestamp.valueOf(LocalDateTime.now(clock).plusMinutes(5)), id);
+        timeoutService.rebuild();
+
+        clock.advance(Duration.ofHours(1));
+        Assert.assertEquals(0, timeoutService.fireDue());
+
+        Application application = applicationRespository.findById(id).get();
+        Assert.assertEquals(ApplicationStatus.APPROVED, application.getStatus());
+        Assert.assertNull(application.getDeadline());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void timers_need_compare_and_set() {
+        FsmProperties properties = new FsmProperties();
+        properties.getTimers().setEnabled(true);
+        new ApplicationTimeoutService(jdbcTemplate, applicationRespository, applicationFsmService, null, null, properties);
+    }
+
+    @Test
+    public void wheel_expires_deadlines_in_passed_ticks() {
+        HashedTimingWheel wheel = new HashedTimingWheel(10, 8, 1000);
+        wheel.schedule(1, 1005);
+        wheel.schedule(2, 1055);
+        // more than one rotation away, shares a bucket with id 2
+        wheel.schedule(3, 1135);
+        wheel.schedule(4, 500);
+
+        Assert.assertArrayEquals(new long[0], wheel.expire(1000));
+        Assert.assertArrayEquals(new long[]{1, 4}, sorted(wheel.expire(1019)));
+        Assert.assertArrayEquals(new long[]{2}, wheel.expire(1060));
+        Assert.assertEquals(1, wheel.size());
+        Assert.assertArrayEquals(new long[0], wheel.expire(1130));
+        Assert.assertArrayEquals(new long[]{3}, wheel.expire(5000));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    private static long[] sorted(long[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+}
@@ -0,0 +1,95 @@
+package pl.arimr.statemachinedemo;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.persist.single-statement=true", "fsm.persist.mode=unconditional",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+@Transactional
+public class SingleStatementUnconditionalPersistTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void saved_application_moves_in_the_same_transaction() throws FsmTransitionException {
+        Application application = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+        entityManager.flush();
+
+        entityManager.clear();
+        Application stored = applicationRespository.getOne(application.getId());
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, stored.getStatus());
+    }
+
+    @Test
+    public void approve_writes_status_and_name_in_one_statement() throws FsmTransitionException {
+        Application application = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+        entityManager.flush();
+        statistics.clear();
+
+        applicationFsmService.sendEvent(application, ApplicationEvent.APPROVE);
+        entityManager.flush();
+
+        Assert.assertEquals(1, statistics.getPrepareStatementCount());
+        Assert.assertEquals(0, statistics.getEntityUpdateCount());
+        entityManager.clear();
+        Application stored = applicationRespository.getOne(application.getId());
+        Assert.assertEquals(ApplicationStatus.APPROVED, stored.getStatus());
+        Assert.assertEquals("APPROVED: A", stored.getName());
+    }
+
+    @Test
+    public void stale_entity_is_moved_anyway() throws FsmTransitionException {
+        Application application = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.TEN)), ApplicationEvent.ACCEPT);
+        entityManager.flush();
+        entityManager.createNativeQuery("UPDATE APPLICATION SET STATUS='ENTERED' WHERE ID=:id")
+                .setParameter("id", application.getId())
+                .executeUpdate();
+
+        applicationFsmService.sendEvent(application, ApplicationEvent.APPROVE);
+        entityManager.flush();
+
+        entityManager.clear();
+        Application stored = applicationRespository.getOne(application.getId());
+        Assert.assertEquals(ApplicationStatus.APPROVED, stored.getStatus());
+        Assert.assertEquals("APPROVED: A", stored.getName());
+    }
+}
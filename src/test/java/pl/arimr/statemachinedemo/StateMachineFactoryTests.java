@@ -0,0 +1,29 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class StateMachineFactoryTests {
+
+    @Autowired
+    private StateMachineFactory<ApplicationStatus, ApplicationEvent> applicationFsmFactory;
+
+    @Test
+    public void factory_machines_are_independent() {
+        StateMachine<ApplicationStatus, ApplicationEvent> first = applicationFsmFactory.getStateMachine();
+        StateMachine<ApplicationStatus, ApplicationEvent> second = applicationFsmFactory.getStateMachine();
+        Assert.assertNotSame(first, second);
+        Assert.assertNotSame(first.getExtendedState(), second.getExtendedState());
+        Assert.assertEquals(ApplicationStatus.ENTERED, first.getState().getId());
+    }
+}
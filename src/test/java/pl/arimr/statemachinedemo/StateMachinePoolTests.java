@@ -0,0 +1,113 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.cons.FsmExtendedStateCons;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.FsmProperties;
+import pl.arimr.statemachinedemo.fsm.StateMachinePool;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+import java.time.Duration;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"fsm.pool.size=1", "fsm.pool.blocking=true"})
+@Transactional
+public class StateMachinePoolTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private StateMachineFactory<ApplicationStatus, ApplicationEvent> applicationFsmFactory;
+
+    @Test
+    public void error_does_not_leak_to_next_entity() throws FsmTransitionException {
+        Application rejected = applicationRespository.save(new Application("A", "X", BigDecimal.ZERO));
+        applicationFsmService.sendEvent(rejected, ApplicationEvent.ACCEPT);
+        try {
+            applicationFsmService.sendEvent(rejected, ApplicationEvent.APPROVE);
+            Assert.fail("Approve with zero amount must be rejected");
+        } catch (FsmTransitionException e) {
+            Assert.assertEquals("Cannot approve with incorrect amount", e.getMessage());
+        }
+
+        // the same, single pooled machine handles the next entity
+        Application accepted = applicationRespository.save(new Application("B", "X", BigDecimal.TEN));
+        applicationFsmService.sendEvent(accepted, ApplicationEvent.ACCEPT);
+        applicationFsmService.sendEvent(accepted, ApplicationEvent.APPROVE);
+        Assert.assertEquals(ApplicationStatus.APPROVED, accepted.getStatus());
+    }
+
+    @Test
+    public void error_does_not_leak_to_unsaved_entity() throws FsmTransitionException {
+        Application rejected = new Application("A", "X", BigDecimal.TEN);
+        try {
+            applicationFsmService.sendEvent(rejected, ApplicationEvent.ACCEPT);
+            Assert.fail("Unsaved entity must be rejected");
+        } catch (FsmTransitionException e) {
+            Assert.assertEquals("Cannot accept unsaved entity", e.getMessage());
+        }
+
+        Application accepted = applicationRespository.save(new Application("B", "X", BigDecimal.TEN));
+        applicationFsmService.sendEvent(accepted, ApplicationEvent.ACCEPT);
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, accepted.getStatus());
+    }
+
+    @Test
+    public void released_machine_is_reused_and_cleared() {
+        StateMachinePool<ApplicationStatus, ApplicationEvent> pool = pool(1, false);
+        StateMachine<ApplicationStatus, ApplicationEvent> first = pool.acquire();
+        first.getExtendedState().getVariables().put(FsmExtendedStateCons.ERROR, "error");
+        pool.release(first);
+
+        StateMachine<ApplicationStatus, ApplicationEvent> second = pool.acquire();
+        Assert.assertSame(first, second);
+        Assert.assertTrue(second.getExtendedState().getVariables().isEmpty());
+        Assert.assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void grow_on_demand_does_not_keep_overflow() {
+        StateMachinePool<ApplicationStatus, ApplicationEvent> pool = pool(1, false);
+        StateMachine<ApplicationStatus, ApplicationEvent> first = pool.acquire();
+        StateMachine<ApplicationStatus, ApplicationEvent> second = pool.acquire();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(2, pool.getCreatedCount());
+
+        pool.release(first);
+        pool.release(second);
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void blocking_pool_times_out_when_exhausted() {
+        StateMachinePool<ApplicationStatus, ApplicationEvent> pool = pool(1, true);
+        pool.acquire();
+        pool.acquire();
+    }
+
+    private StateMachinePool<ApplicationStatus, ApplicationEvent> pool(int size, boolean blocking) {
+        FsmProperties.Pool properties = new FsmProperties.Pool();
+        properties.setSize(size);
+        properties.setBlocking(blocking);
+        properties.setMaxWait(Duration.ofMillis(50));
+        return new StateMachinePool<>("applicationFsmFactory", applicationFsmFactory::getStateMachine, properties);
+    }
+}
@@ -0,0 +1,111 @@
+package pl.arimr.statemachinedemo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+import pl.arimr.statemachinedemo.domain.Application;
+import pl.arimr.statemachinedemo.enums.ApplicationEvent;
+import pl.arimr.statemachinedemo.enums.ApplicationStatus;
+import pl.arimr.statemachinedemo.exceptions.FsmTransitionException;
+import pl.arimr.statemachinedemo.fsm.TransitionDefinition;
+import pl.arimr.statemachinedemo.fsm.TransitionIndex;
+import pl.arimr.statemachinedemo.repositories.ApplicationRespository;
+import pl.arimr.statemachinedemo.service.ApplicationFsmService;
+
+import javax.transaction.Transactional;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class TransitionIndexTests {
+
+    @Autowired
+    private ApplicationRespository applicationRespository;
+
+    @Autowired
+    private ApplicationFsmService applicationFsmService;
+
+    @Autowired
+    private StateMachineFactory<ApplicationStatus, ApplicationEvent> applicationFsmFactory;
+
+    @Autowired
+    private List<TransitionDefinition<ApplicationStatus, ApplicationEvent>> applicationFsmTransitions;
+
+    @Test
+    public void events_follow_status() throws FsmTransitionException {
+        Application application = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+        Assert.assertEquals(EnumSet.of(ApplicationEvent.ACCEPT), applicationFsmService.getAvailableEvents(application));
+        Assert.assertEquals(EnumSet.of(ApplicationEvent.ACCEPT), applicationFsmService.getAvailableEvents(new Application("B", "X", BigDecimal.TEN)));
+
+        applicationFsmService.sendEvent(application, ApplicationEvent.ACCEPT);
+        Assert.assertEquals(EnumSet.of(ApplicationEvent.APPROVE, ApplicationEvent.DISCARD), applicationFsmService.getAvailableEvents(application));
+
+        applicationFsmService.sendEvent(application, ApplicationEvent.APPROVE);
+        Assert.assertTrue(applicationFsmService.getAvailableEvents(application).isEmpty());
+    }
+
+    @Test
+    public void guards_are_evaluated_on_request() throws FsmTransitionException {
+        Application application = applicationFsmService.sendEvent(
+                applicationRespository.save(new Application("A", "X", BigDecimal.ZERO)), ApplicationEvent.ACCEPT);
+
+        Assert.assertEquals(EnumSet.of(ApplicationEvent.APPROVE, ApplicationEvent.DISCARD),
+                applicationFsmService.getAvailableEvents(application, false));
+        Assert.assertEquals(EnumSet.of(ApplicationEvent.DISCARD), applicationFsmService.getAvailableEvents(application, true));
+        Assert.assertEquals(ApplicationStatus.ACCEPTED, application.getStatus());
+        Assert.assertEquals("A", application.getName());
+    }
+
+    @Test
+    public void bulk_lookup_shares_sets_per_status() {
+        Application first = applicationRespository.save(new Application("A", "X", BigDecimal.TEN));
+        Application second = applicationRespository.save(new Application("B", "X", BigDecimal.TEN));
+
+        Map<Application, Set<ApplicationEvent>> available = applicationFsmService.getAvailableEvents(Arrays.asList(first, second));
+        Assert.assertEquals(2, available.size());
+        Assert.assertSame(available.get(first), available.get(second));
+        Assert.assertSame(available.get(first), applicationFsmService.getAvailableEvents(Arrays.asList(first, second), true).get(first));
+    }
+
+    @Test
+    public void index_is_built_from_factory_model() {
+        TransitionIndex<ApplicationStatus, ApplicationEvent, Application> index = TransitionIndex.of(applicationFsmFactory.getStateMachine());
+
+        Assert.assertEquals(ApplicationStatus.ENTERED, index.getInitialState());
+        for (TransitionDefinition<ApplicationStatus, ApplicationEvent> definition : applicationFsmTransitions) {
+            TransitionDefinition<ApplicationStatus, ApplicationEvent> indexed = index.find(definition.getSource(), definition.getEvent());
+            Assert.assertEquals(definition.getTarget(), indexed.getTarget());
+            Assert.assertSame(definition.getGuard(), indexed.getGuard());
+            Assert.assertSame(definition.getAction(), indexed.getAction());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void machine_with_choice_is_not_indexed() throws Exception {
+        StateMachineBuilder.Builder<ApplicationStatus, ApplicationEvent> builder = StateMachineBuilder.builder();
+        builder.configureStates()
+                .withStates()
+                .initial(ApplicationStatus.ENTERED)
+                .choice(ApplicationStatus.ACCEPTED)
+                .state(ApplicationStatus.APPROVED);
+        builder.configureTransitions()
+                .withExternal().event(ApplicationEvent.ACCEPT)
+                .source(ApplicationStatus.ENTERED).target(ApplicationStatus.ACCEPTED)
+                .and()
+                .withChoice()
+                .source(ApplicationStatus.ACCEPTED).last(ApplicationStatus.APPROVED);
+
+        TransitionIndex.of(builder.build());
+    }
+}